@@ -0,0 +1,60 @@
+package info.kgeorgiy.ja.matveev.iterative;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * {@link ParallelMapper}, whose callers don't have to wait for the whole list:
+ * they may get a future of results or receive results one by one, as they are calculated.
+ *
+ * @author Andrey Matveev
+ * @version 21
+ * @see ParallelMapper
+ * @since 21
+ */
+public interface AsyncParallelMapper extends ParallelMapper {
+    /**
+     * Starts calculating {@code f} on every element of {@code args} and returns without waiting.
+     * Future completes with results in order of elements, or exceptionally with exception thrown by {@code f},
+     * others being suppressed by it, after every element is calculated.
+     *
+     * @param f    Function to calculate
+     * @param args Elements to calculate function on
+     * @param <T>  Type of elements
+     * @param <R>  Type of results
+     * @return Future of list of results
+     */
+    <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args);
+
+    /**
+     * Returns publisher, that calculates {@code f} on every element of {@code args} for every subscriber,
+     * and passes results in order, they are calculated. Results are kept until requested.
+     * The first exception thrown by {@code f}, or {@link NullPointerException}, if it returns {@code null},
+     * is passed to {@link Flow.Subscriber#onError}, and elements, that aren't calculated yet, are skipped.
+     *
+     * @param f    Function to calculate
+     * @param args Elements to calculate function on
+     * @param <T>  Type of elements
+     * @param <R>  Type of results
+     * @return Publisher of results in order of completion
+     */
+    <T, R> Flow.Publisher<R> mapPublisher(Function<? super T, ? extends R> f, List<? extends T> args);
+
+    /**
+     * Returns publisher like {@link #mapPublisher(Function, List)}, that passes results in order of elements.
+     * No more than {@code window} elements starting from the first one, that isn't passed yet, are calculated
+     * at the same time, so at most {@code window} results wait for an earlier one or for a request.
+     *
+     * @param f      Function to calculate
+     * @param args   Elements to calculate function on
+     * @param window Number of elements, that may be calculated ahead
+     * @param <T>    Type of elements
+     * @param <R>    Type of results
+     * @return Publisher of results in order of elements
+     */
+    <T, R> Flow.Publisher<R> mapPublisher(Function<? super T, ? extends R> f, List<? extends T> args, int window);
+}
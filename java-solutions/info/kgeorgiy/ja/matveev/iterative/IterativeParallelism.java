@@ -138,13 +138,9 @@ public class IterativeParallelism implements AdvancedIP {
                 l = r;
             }
 
-            try {
-                List<U> results = parallelMapper.map(s -> s.stream().collect(innerCollector), subLists);
-                return results.stream().collect(outerCollector);
-            } catch (InterruptedException e) {
-                parallelMapper.close();
-                throw e;
-            }
+            // Mapper is shared, so it's up to mapper to cancel the call, if we are interrupted
+            List<U> results = parallelMapper.map(s -> s.stream().collect(innerCollector), subLists);
+            return results.stream().collect(outerCollector);
         }
     }
 
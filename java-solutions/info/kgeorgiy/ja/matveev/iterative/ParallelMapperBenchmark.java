@@ -0,0 +1,75 @@
+package info.kgeorgiy.ja.matveev.iterative;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Measures, how {@link ParallelMapperImpl} scales with number of threads against {@link QueueParallelMapper},
+ * on cheap elements, where the cost of passing tasks dominates, and on ones, that take a few microseconds.
+ * {@code ParallelMapperImpl} is measured both with adaptive chunks and with a task per element.
+ * Usage: {@code ParallelMapperBenchmark [elements] [iterations]}.
+ *
+ * @author Andrey Matveev
+ * @version 21
+ * @see ParallelMapper
+ * @since 21
+ */
+public class ParallelMapperBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int[] SPINS = {0, 1000};
+
+    /**
+     * Runs benchmark.
+     *
+     * @param args Number of elements and number of iterations, both optional
+     * @throws InterruptedException if interrupted while mapping
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        final int elements = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final List<Integer> values = Collections.nCopies(elements, 1);
+
+        for (final int spins : SPINS) {
+            final Function<Integer, Integer> f = x -> spin(x, spins);
+            System.out.printf("%d spins per element, ns per element%n%8s %14s %14s %14s%n", spins, "threads", "queue", "grain 1", "adaptive");
+            for (final int threads : THREADS) {
+                final double queue = measure(QueueParallelMapper::new, threads, values, iterations, mapper -> mapper.map(f, values));
+                final double single = measure(ParallelMapperImpl::new, threads, values, iterations,
+                        mapper -> ((ParallelMapperImpl) mapper).map(f, values, 1));
+                final double adaptive = measure(ParallelMapperImpl::new, threads, values, iterations, mapper -> mapper.map(f, values));
+                System.out.printf("%8d %14.1f %14.1f %14.1f%n", threads, queue, single, adaptive);
+            }
+        }
+    }
+
+    private interface Pass {
+        void run(ParallelMapper mapper) throws InterruptedException;
+    }
+
+    private static double measure(final IntFunction<ParallelMapper> factory, final int threads,
+                                  final List<Integer> values, final int iterations, final Pass pass) throws InterruptedException {
+        try (final ParallelMapper mapper = factory.apply(threads)) {
+            for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+                pass.run(mapper);
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                pass.run(mapper);
+            }
+            return (System.nanoTime() - start) / ((double) values.size() * iterations);
+        }
+    }
+
+    private static int spin(final int x, final int spins) {
+        int result = x;
+        for (int i = 0; i < spins; ++i) {
+            result = result * 31 + i;
+        }
+        return result;
+    }
+}
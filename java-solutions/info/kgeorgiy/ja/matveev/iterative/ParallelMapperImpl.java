@@ -3,21 +3,42 @@ package info.kgeorgiy.ja.matveev.iterative;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
  * Class, that allows to calculate function on some array of values in parallel.
+ * Every worker has its own deque: tasks of a call are spread over deques, a worker takes tasks from the head
+ * of its deque and, when it's empty, steals from the tails of other ones, so workers don't contend on a single queue.
+ * Asynchronous calls are completed and streamed results are passed by workers.
+ * A call, that is cancelled, has its queued tasks removed from deques, and workers running its tasks interrupted.
  *
  * @author Andrey Matveev
  * @version 21
- * @see ParallelMapper
+ * @see AsyncParallelMapper
  * @since 21
  */
-public class ParallelMapperImpl implements ParallelMapper {
-    private final List<Thread> threadList = new ArrayList<>();
-    private final SynchronizedQueue<TaskWrapper> tasksQueue = new SynchronizedQueue<>();
+public class ParallelMapperImpl implements AsyncParallelMapper {
+    private static final long TARGET_CHUNK_NANOS = 50_000;
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final List<Worker> workers = new ArrayList<>();
+    // Incremented after tasks are added, so an idle worker can tell, whether it missed some
+    private final AtomicLong submissions = new AtomicLong();
+    // Deque, that the next call starts spreading its tasks from
+    private int nextDeque;
+    private volatile boolean closed;
 
     /**
      * Constructor, that constructs {@code ParallelMapperImpl} with {@code threads} number of threads
@@ -28,140 +49,724 @@ public class ParallelMapperImpl implements ParallelMapper {
         if (threads <= 0) {
             throw new IllegalArgumentException("\"threads\" must be positive number");
         }
-        final Runnable taskHandler = () -> {
-            try {
-                while (!Thread.interrupted()) {
-                    tasksQueue.poll().run();
+        IntStream.range(0, threads).forEach(i -> workers.add(new Worker(i)));
+        workers.forEach(worker -> worker.thread.start());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every worker claims chunks of consecutive elements from the call, starting with a single element.
+     * Chunk size follows measured cost of elements, so that a chunk takes about {@value TARGET_CHUNK_NANOS} ns,
+     * while every worker still gets a few chunks to balance load. A costly element delays only the worker, that claimed it.
+     * If mapper is closed before every element is calculated, {@link CancellationException} is thrown.
+     */
+    @Override
+    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> args) throws InterruptedException {
+        final ResultList<R> results = start(f, args, new ResultList<>(args.size()));
+        try {
+            return results.getResults();
+        } catch (final InterruptedException e) {
+            cancel(results);
+            throw e;
+        }
+    }
+
+    /**
+     * Calculates {@code f} on every element of {@code args} like {@link #map(Function, List)},
+     * unless it takes longer than {@code timeout}. Then the call is cancelled: its tasks, that haven't started,
+     * are dropped, and workers, that run the other ones, are interrupted, while the mapper may be used further.
+     *
+     * @param f       Function to calculate
+     * @param args    Elements to calculate function on
+     * @param timeout Time to wait for results
+     * @param unit    Unit of {@code timeout}
+     * @param <T>     Type of elements
+     * @param <R>     Type of results
+     * @return List of results in order of elements
+     * @throws InterruptedException if calling thread was interrupted, the call is cancelled then as well
+     * @throws TimeoutException     if not every element is calculated in time
+     */
+    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                              final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final ResultList<R> results = start(f, args, new ResultList<>(args.size()));
+        try {
+            return results.getResults(deadline);
+        } catch (final InterruptedException | TimeoutException e) {
+            cancel(results);
+            throw e;
+        }
+    }
+
+    private <T, R> ResultList<R> start(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                                       final ResultList<R> results) {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger grain = new AtomicInteger(1);
+        final int maxGrain = maxGrain(args.size());
+        final List<TaskWrapper> tasks = new ArrayList<>();
+        for (int i = 0; i < Math.min(workers.size(), args.size()); ++i) {
+            tasks.add(new TaskWrapper(() -> claim(f, args, next, grain, maxGrain, results), results));
+        }
+        results.expect(tasks.size());
+        submit(results, tasks);
+        return results;
+    }
+
+    /**
+     * Calculates chunks of elements starting from {@code next}, until there are none left.
+     * Every chunk is timed, and the next ones are sized by its cost per element.
+     * If mapper is closed meanwhile, the call is closed, as the rest of elements won't be calculated.
+     */
+    private <T, R> void claim(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                              final AtomicInteger next, final AtomicInteger grain, final int maxGrain,
+                              final ResultList<R> results) {
+        while (!results.isCancelled()) {
+            final int size = grain.get();
+            final int from = next.getAndAdd(size);
+            if (from < 0 || from >= args.size()) {
+                return;
+            }
+            final int to = (int) Math.min((long) from + size, args.size());
+            final long start = System.nanoTime();
+            int i = from;
+            for (; i < to && !results.isCancelled() && !closed; ++i) {
+                apply(f, args, i, results);
+            }
+            if (i < to) {
+                if (closed) {
+                    results.close();
                 }
-            } catch (final InterruptedException ignored) {
+                return;
+            }
+            final long elapsed = Math.max(System.nanoTime() - start, 1);
+            grain.set((int) Math.max(1, Math.min(maxGrain, TARGET_CHUNK_NANOS * (to - from) / elapsed)));
+        }
+    }
+
+    // Largest chunk, that still leaves a few chunks to every worker
+    private int maxGrain(final int elements) {
+        final int chunks = workers.size() * CHUNKS_PER_WORKER;
+        return Math.max((elements + chunks - 1) / chunks, 1);
+    }
+
+    /**
+     * Calculates {@code f} on every element of {@code args}, passing them to workers in chunks
+     * of {@code grain} consecutive elements. Large grain lowers overhead of cheap elements,
+     * while small one balances load of costly or uneven ones.
+     *
+     * @param f     Function to calculate
+     * @param args  Elements to calculate function on
+     * @param grain Number of elements in a chunk
+     * @param <T>   Type of elements
+     * @param <R>   Type of results
+     * @return List of results in order of elements
+     * @throws InterruptedException if calling thread was interrupted, the call is cancelled then
+     */
+    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> args, final int grain) throws InterruptedException {
+        if (grain <= 0) {
+            throw new IllegalArgumentException("\"grain\" must be positive number");
+        }
+        final ResultList<R> results = new ResultList<>(args.size());
+        submit(f, args, 0, grain, results);
+        try {
+            return results.getResults();
+        } catch (final InterruptedException e) {
+            cancel(results);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Elements are passed to workers like by {@link #map(Function, List)}.
+     * Dependent stages, that aren't asynchronous, run on the worker, that completes the future.
+     * If the future is completed otherwise, for example cancelled or timed out by {@link CompletableFuture#orTimeout},
+     * the call is cancelled: its tasks, that haven't started, are dropped, and the running ones are interrupted.
+     */
+    @Override
+    public <T, R> CompletableFuture<List<R>> mapAsync(final Function<? super T, ? extends R> f, final List<? extends T> args) {
+        final ResultList<R> results = new ResultList<>(args.size(), new CompletableFuture<>());
+        results.future.whenComplete((list, e) -> {
+            if (e != null) {
+                cancel(results);
             }
-        };
-        IntStream.range(0, threads).forEach(i -> {
-            final Thread thread = new Thread(taskHandler);
-            threadList.add(thread);
-            thread.start();
         });
+        start(f, args, results);
+        return results.future;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Subscriber is called by workers and by threads, that request results.
+     * Cancelling subscription drops elements, that haven't started, and interrupts workers calculating the other ones.
+     */
     @Override
-    public <T, R> List<R> map(final Function<? super T, ? extends R> f, final List<? extends T> args) throws InterruptedException {
-        final ResultList<R> results = new ResultList<>(args.size());
+    public <T, R> Flow.Publisher<R> mapPublisher(final Function<? super T, ? extends R> f, final List<? extends T> args) {
+        return subscriber -> new MappingSubscription<>(f, args, 0, Objects.requireNonNull(subscriber)).start();
+    }
 
-        tasksQueue.addAll(IntStream.range(0, args.size())
-                .mapToObj(i -> new TaskWrapper(() -> {
-                    try {
-                        results.set(i, f.apply(args.get(i)));
-                    } catch (final RuntimeException e) {
-                        results.addException(e);
-                    }
-                }, results))
-                .toList());
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Subscriber is called by workers and by threads, that request results.
+     * Cancelling subscription drops elements, that haven't started, and interrupts workers calculating the other ones.
+     */
+    @Override
+    public <T, R> Flow.Publisher<R> mapPublisher(final Function<? super T, ? extends R> f, final List<? extends T> args, final int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("\"window\" must be positive number");
+        }
+        return subscriber -> new MappingSubscription<>(f, args, window, Objects.requireNonNull(subscriber)).start();
+    }
 
-        return results.getResults();
+    private <T, R> void submit(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                               final int from, final int grain, final ResultList<R> results) {
+        final List<TaskWrapper> tasks = new ArrayList<>((int) ((args.size() - from + (long) grain - 1) / grain));
+        for (int l = from; l < args.size(); l += grain) {
+            final int finalL = l;
+            final int r = (int) Math.min((long) l + grain, args.size());
+            tasks.add(new TaskWrapper(() -> {
+                for (int i = finalL; i < r && !results.isCancelled(); ++i) {
+                    apply(f, args, i, results);
+                }
+            }, results));
+        }
+        results.expect(tasks.size());
+        submit(results, tasks);
+    }
+
+    private static <T, R> void apply(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                                     final int index, final ResultList<R> results) {
+        try {
+            results.set(index, f.apply(args.get(index)));
+        } catch (final RuntimeException e) {
+            results.addException(e);
+        }
+    }
+
+    /**
+     * Spreads {@code tasks} of {@code call} over deques. If mapper is closed, the call is closed instead,
+     * as tasks, that are added after {@link #close()} takes the rest, would never run.
+     */
+    private void submit(final Call call, final List<TaskWrapper> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (closed) {
+            call.close();
+            return;
+        }
+        final int start;
+        synchronized (this) {
+            start = nextDeque;
+            nextDeque = (nextDeque + 1) % workers.size();
+        }
+        // Every deque gets a contiguous block, so it's locked once per call
+        final int n = workers.size();
+        for (int i = 0, from = 0; i < n; ++i) {
+            final int to = from + tasks.size() / n + (i < tasks.size() % n ? 1 : 0);
+            if (from < to) {
+                workers.get((start + i) % n).deque.addAll(tasks.subList(from, to));
+            }
+            from = to;
+        }
+        // Either close() takes tasks added before it set the flag, or we see the flag
+        if (closed) {
+            drop(call);
+            call.close();
+            return;
+        }
+        submissions.incrementAndGet();
+        for (final Worker worker : workers) {
+            if (worker.idle) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    private void cancel(final Call call) {
+        call.cancel();
+        drop(call);
+    }
+
+    /**
+     * Removes queued tasks of {@code call}, that is already cancelled, and interrupts workers, that run its tasks,
+     * except for the current thread, which may be one of them.
+     */
+    private void drop(final Call call) {
+        for (final Worker worker : workers) {
+            worker.deque.removeCall(call);
+        }
+        for (final Worker worker : workers) {
+            worker.interrupt(call);
+        }
     }
 
     @Override
     public void close() {
-        for (final Thread thread : threadList) {
-            thread.interrupt();
+        closed = true;
+        for (final Worker worker : workers) {
+            worker.thread.interrupt();
             while (true) {
                 try {
-                    thread.join();
+                    worker.thread.join();
                 } catch (final InterruptedException ignored) {
                     // :NOTE: restore at the end of for loop interrupted flag for current thread (that called close())
-                    thread.interrupt();
+                    worker.thread.interrupt();
                     continue;
                 }
                 break;
             }
         }
-        tasksQueue.stream().forEach(task -> task.results.close());
+        workers.forEach(worker -> {
+            for (TaskWrapper task = worker.deque.pollFirst(); task != null; task = worker.deque.pollFirst()) {
+                task.call.close();
+            }
+        });
     }
 
-    private static class SynchronizedQueue<T> {
-        private final Queue<T> tasks = new ArrayDeque<>();
+    private class Worker implements Runnable {
+        private final int index;
+        private final TaskDeque deque = new TaskDeque();
+        private final Thread thread = new Thread(this);
+        private volatile boolean idle;
+        // Task being run, guarded by this
+        private TaskWrapper current;
+
+        Worker(final int index) {
+            this.index = index;
+        }
 
-        public synchronized void addAll(final Collection<T> collection) {
-            collection.forEach(task -> {
-                tasks.add(task);
-                notify();
-            });
+        @Override
+        public void run() {
+            while (!closed) {
+                // Read before looking for tasks, so tasks submitted after the look change it
+                final long seen = submissions.get();
+                final TaskWrapper task = find();
+                if (task != null) {
+                    run(task);
+                    continue;
+                }
+                idle = true;
+                // Either submitter sees the flag and unparks, or we see the new submission
+                while (submissions.get() == seen && !closed) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+            }
         }
 
-        public synchronized T poll() throws InterruptedException {
-            while (tasks.isEmpty()) {
-                wait();
+        private void run(final TaskWrapper task) {
+            synchronized (this) {
+                current = task;
+            }
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    current = null;
+                    // Interrupt, that cancelled the task, mustn't reach the next one
+                    if (!closed) {
+                        Thread.interrupted();
+                    }
+                }
             }
+        }
 
-            return tasks.poll();
+        private synchronized void interrupt(final Call call) {
+            if (current != null && current.call == call && thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
         }
 
-        public Stream<T> stream() {
-            return tasks.stream();
+        private TaskWrapper find() {
+            final TaskWrapper own = deque.pollFirst();
+            if (own != null) {
+                return own;
+            }
+            for (int i = 1; i < workers.size(); ++i) {
+                final TaskWrapper stolen = workers.get((index + i) % workers.size()).deque.pollLast();
+                if (stolen != null) {
+                    return stolen;
+                }
+            }
+            return null;
         }
     }
 
-    // :NOTE: parametrize
+    /**
+     * Subscription to a publisher of {@link #mapPublisher}. Results are passed to subscriber by a drain loop,
+     * that is entered by one thread at a time: a worker, that has calculated an element, or a requesting thread.
+     * A thread, that finds the loop taken, leaves it to run once more, so no signal is lost.
+     */
+    private class MappingSubscription<T, R> implements Flow.Subscription, Call {
+        private final Function<? super T, ? extends R> f;
+        private final List<? extends T> args;
+        // Zero, if results are passed in order of completion
+        private final int window;
+        private final Flow.Subscriber<? super R> subscriber;
+        private final int grain;
+        private final Queue<R> completed = new ConcurrentLinkedQueue<>();
+        // Result of element i is kept at i % window, until it's passed
+        private final AtomicReferenceArray<R> slots;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger drains = new AtomicInteger();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private volatile boolean cancelled;
+        // Accessed by drain loop only
+        private int passed;
+        private int submitted;
+
+        MappingSubscription(final Function<? super T, ? extends R> f, final List<? extends T> args,
+                            final int window, final Flow.Subscriber<? super R> subscriber) {
+            this.f = f;
+            this.args = args;
+            this.window = window;
+            this.subscriber = subscriber;
+            this.slots = window == 0 ? null : new AtomicReferenceArray<>(window);
+            this.grain = window == 0 ? maxGrain(args.size()) : Math.max(window / (workers.size() * CHUNKS_PER_WORKER), 1);
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+            if (window == 0) {
+                submit(this, chunks(0, args.size()));
+            }
+            drain();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested non-positive number of results: " + n));
+                return;
+            }
+            requested.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drop(this);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void decreaseCounter() {
+            // Elements are counted by drain loop, as they are passed
+        }
+
+        @Override
+        public void close() {
+            fail(new CancellationException("Mapper is closed"));
+        }
+
+        private List<TaskWrapper> chunks(final int from, final int to) {
+            final List<TaskWrapper> tasks = new ArrayList<>();
+            for (int l = from; l < to; l += grain) {
+                final int finalL = l;
+                final int r = (int) Math.min((long) l + grain, to);
+                tasks.add(new TaskWrapper(() -> calculate(finalL, r), this));
+            }
+            return tasks;
+        }
+
+        private void calculate(final int from, final int to) {
+            for (int i = from; i < to && !cancelled; ++i) {
+                final R result;
+                try {
+                    result = f.apply(args.get(i));
+                } catch (final RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                if (result == null) {
+                    fail(new NullPointerException("Function returned null for element " + i));
+                    return;
+                }
+                if (window == 0) {
+                    completed.add(result);
+                } else {
+                    slots.set(i % window, result);
+                }
+                drain();
+            }
+        }
+
+        private void fail(final Throwable e) {
+            if (error.compareAndSet(null, e)) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            if (drains.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                try {
+                    pass();
+                } catch (final RuntimeException e) {
+                    // Subscriber, that throws, is considered to cancel subscription
+                    cancelled = true;
+                    drop(this);
+                }
+                missed = drains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void pass() {
+            if (cancelled) {
+                return;
+            }
+            if (error.get() != null) {
+                cancelled = true;
+                drop(this);
+                subscriber.onError(error.get());
+                return;
+            }
+            final long demand = requested.get();
+            long emitted = 0;
+            while (emitted < demand) {
+                // Slot of the first element, that isn't passed, can't be taken by a later one
+                final R result = window == 0 ? completed.poll() : slots.getAndSet(passed % window, null);
+                if (result == null) {
+                    break;
+                }
+                subscriber.onNext(result);
+                ++emitted;
+                ++passed;
+                if (cancelled) {
+                    return;
+                }
+            }
+            if (emitted > 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+            if (passed == args.size()) {
+                cancelled = true;
+                subscriber.onComplete();
+                return;
+            }
+            if (window > 0) {
+                submitAhead();
+            }
+        }
+
+        // Submits elements, that got into the window, once there are enough of them for a chunk
+        private void submitAhead() {
+            final int limit = (int) Math.min((long) passed + window, args.size());
+            if (limit - submitted >= grain || limit == args.size() && submitted < limit) {
+                final int from = submitted;
+                submitted = limit;
+                submit(this, chunks(from, limit));
+            }
+        }
+    }
+
+    /**
+     * Deque of a worker. Its lock is rarely contended: by submitters once per call and by thieves,
+     * when their own deques are empty.
+     */
+    private static class TaskDeque {
+        private final ArrayDeque<TaskWrapper> tasks = new ArrayDeque<>();
+
+        public synchronized void addAll(final Collection<TaskWrapper> collection) {
+            tasks.addAll(collection);
+        }
+
+        public synchronized TaskWrapper pollFirst() {
+            return tasks.pollFirst();
+        }
+
+        public synchronized TaskWrapper pollLast() {
+            return tasks.pollLast();
+        }
+
+        public synchronized void removeCall(final Call call) {
+            tasks.removeIf(task -> task.call == call);
+        }
+    }
+
+    /**
+     * Call, whose tasks are passed to workers.
+     */
+    private interface Call {
+        /**
+         * Marks the call cancelled, so its tasks, that are already taken by workers, are skipped.
+         */
+        void cancel();
+
+        boolean isCancelled();
+
+        /**
+         * Called by worker after a task of the call is run.
+         */
+        void decreaseCounter();
+
+        /**
+         * Called, if mapper is closed before every task of the call is run.
+         */
+        void close();
+    }
+
     private static class TaskWrapper {
         private final Runnable task;
-        private final ResultList<?> results;
+        private final Call call;
 
-        public TaskWrapper(final Runnable task, final ResultList<?> results) {
+        public TaskWrapper(final Runnable task, final Call call) {
             this.task = task;
-            this.results = results;
+            this.call = call;
         }
 
         public void run() {
-            task.run();
-            results.decreaseCounter();
+            if (!call.isCancelled()) {
+                task.run();
+            }
+            call.decreaseCounter();
         }
     }
 
-    private static class ResultList<T> {
-        private final List<T> list;
-        private int counter;
+    /**
+     * Results of a call. Elements are written to a plain array by workers and published by the countdown of tasks,
+     * and the caller parks until it reaches zero, so neither side takes a lock.
+     * Results of an asynchronous call complete its future instead.
+     */
+    private static class ResultList<T> implements Call {
+        private final Object[] array;
+        private final AtomicInteger counter = new AtomicInteger();
+        private final AtomicReference<RuntimeException> accumulatedExceptions = new AtomicReference<>();
         private volatile boolean isClosed = false;
-        private RuntimeException accumulatedExceptions = null;
+        private volatile boolean isCancelled = false;
+        private volatile Thread waiter;
+        private final CompletableFuture<List<T>> future;
 
         public ResultList(final int size) {
-            list = new ArrayList<>(Collections.nCopies(size, null));
-            counter = size;
+            this(size, null);
+        }
+
+        public ResultList(final int size, final CompletableFuture<List<T>> future) {
+            array = new Object[size];
+            this.future = future;
         }
 
+        public void expect(final int tasks) {
+            counter.set(tasks);
+            if (tasks == 0) {
+                finish();
+            }
+        }
+
+        @Override
         public void close() {
             isClosed = true;
-            notifyAll();
+            LockSupport.unpark(waiter);
+            if (future != null) {
+                future.completeExceptionally(new CancellationException("Mapper is closed"));
+            }
         }
 
-        public synchronized List<T> getResults() {
-            while (counter > 0 && !isClosed) {
-                try {
-                    wait();
-                } catch (final InterruptedException ignored) {
+        @Override
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        public List<T> getResults() throws InterruptedException {
+            await(false, 0);
+            return results();
+        }
+
+        /**
+         * Waits for results until {@code deadline} in terms of {@link System#nanoTime()}.
+         */
+        public List<T> getResults(final long deadline) throws InterruptedException, TimeoutException {
+            if (!await(true, deadline)) {
+                throw new TimeoutException("Elements weren't calculated in time: " + counter.get() + " chunks left");
+            }
+            return results();
+        }
+
+        /**
+         * Returns whether every task is run or mapper is closed before {@code deadline}, if it's {@code timed}.
+         */
+        private boolean await(final boolean timed, final long deadline) throws InterruptedException {
+            waiter = Thread.currentThread();
+            try {
+                // Either a worker sees the waiter and unparks, or we see the counter reach zero
+                while (counter.get() > 0 && !isClosed) {
+                    if (!timed) {
+                        LockSupport.park(this);
+                    } else {
+                        final long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            return false;
+                        }
+                        LockSupport.parkNanos(this, left);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
                 }
+                return true;
+            } finally {
+                waiter = null;
+            }
+        }
+
+        private List<T> results() {
+            if (isClosed) {
+                throw new CancellationException("Mapper is closed");
             }
-            if (accumulatedExceptions != null) {
-                throw accumulatedExceptions;
+            final RuntimeException exception = accumulatedExceptions.get();
+            if (exception != null) {
+                throw exception;
             }
-            return list;
+            return list();
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<T> list() {
+            return (List<T>) Arrays.asList(array);
         }
 
         public void set(final int index, final T t) {
-            list.set(index, t);
+            array[index] = t;
         }
 
-        public synchronized void decreaseCounter() {
-            --counter;
-            if (counter == 0) {
-                notify();
+        @Override
+        public void decreaseCounter() {
+            if (counter.decrementAndGet() == 0) {
+                finish();
             }
         }
 
-        public synchronized void addException(final RuntimeException e) {
-            if (accumulatedExceptions == null) {
-                accumulatedExceptions = e;
+        private void finish() {
+            if (future == null) {
+                LockSupport.unpark(waiter);
+            } else if (accumulatedExceptions.get() != null) {
+                future.completeExceptionally(accumulatedExceptions.get());
             } else {
-                accumulatedExceptions.addSuppressed(e);
+                future.complete(list());
+            }
+        }
+
+        public void addException(final RuntimeException e) {
+            if (!accumulatedExceptions.compareAndSet(null, e)) {
+                accumulatedExceptions.get().addSuppressed(e);
             }
         }
     }
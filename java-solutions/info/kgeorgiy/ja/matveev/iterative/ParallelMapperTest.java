@@ -0,0 +1,457 @@
+package info.kgeorgiy.ja.matveev.iterative;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+public class ParallelMapperTest {
+    private static final int THREADS = 4;
+    private static final int ELEMENTS = 10_000;
+
+    private final List<Integer> values = IntStream.range(0, ELEMENTS).boxed().toList();
+    private ParallelMapperImpl mapper;
+
+    @BeforeEach
+    public void createMapper() {
+        mapper = new ParallelMapperImpl(THREADS);
+    }
+
+    @AfterEach
+    public void closeMapper() {
+        mapper.close();
+    }
+
+    // Blocks until interrupted, then lets the element finish
+    private static Integer block(CountDownLatch started, Integer value) {
+        started.countDown();
+        try {
+            Thread.sleep(Long.MAX_VALUE);
+        } catch (InterruptedException ignored) {
+        }
+        return value;
+    }
+
+    private static class Recorder<T> implements Flow.Subscriber<T> {
+        private final List<T> items = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Throwable> error = new CompletableFuture<>();
+        private final CompletableFuture<Void> complete = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            complete.complete(null);
+        }
+
+        void request(long n) {
+            subscription.request(n);
+        }
+
+        List<T> await(int size) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (items.size() < size && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return List.copyOf(items);
+        }
+    }
+
+    private List<Integer> squares() {
+        return values.stream().map(x -> x * x).toList();
+    }
+
+    private void assertUsable() throws InterruptedException {
+        Assertions.assertEquals(squares(), mapper.map(x -> x * x, values));
+    }
+
+    @Test
+    public void testMap() throws InterruptedException {
+        assertUsable();
+        Assertions.assertEquals(List.of(), mapper.map(x -> x, List.of()));
+        Assertions.assertEquals(List.of(1), mapper.map(x -> x + 1, List.of(0)));
+    }
+
+    @Test
+    public void testWorkStealing() throws InterruptedException {
+        // The first element waits for all others, which are queued behind it only, unless other workers steal them
+        int size = THREADS * 25;
+        CountDownLatch others = new CountDownLatch(size - 1);
+        List<Boolean> waited = mapper.map(x -> {
+            if (x == 0) {
+                try {
+                    return others.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            others.countDown();
+            return true;
+        }, values.subList(0, size), 1);
+        Assertions.assertEquals(Collections.nCopies(size, true), waited);
+    }
+
+    @Test
+    public void testGrain() throws InterruptedException {
+        for (int grain : new int[]{1, 7, ELEMENTS / THREADS, ELEMENTS, Integer.MAX_VALUE - ELEMENTS / 2, Integer.MAX_VALUE}) {
+            Assertions.assertEquals(squares(), mapper.map(x -> x * x, values, grain), "grain " + grain);
+            Assertions.assertEquals(List.of(), mapper.map(x -> x, List.of(), grain), "grain " + grain);
+        }
+        for (int grain : new int[]{0, -1, Integer.MIN_VALUE}) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> mapper.map(x -> x, values, grain), "grain " + grain);
+        }
+        assertUsable();
+    }
+
+    @Test
+    public void testAdaptiveClaims() throws InterruptedException {
+        // Costly element delays only the worker, that claimed it, while others calculate the rest
+        CountDownLatch others = new CountDownLatch(ELEMENTS - 1);
+        List<Boolean> waited = mapper.map(x -> {
+            if (x == 0) {
+                try {
+                    return others.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            others.countDown();
+            return true;
+        }, values);
+        Assertions.assertEquals(Collections.nCopies(ELEMENTS, true), waited);
+
+        // Costly elements are claimed one by one, so every worker gets some
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        mapper.map(x -> {
+            threads.add(Thread.currentThread());
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            return x;
+        }, values.subList(0, THREADS * 50));
+        Assertions.assertEquals(THREADS, threads.size());
+    }
+
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(THREADS * 2);
+        try {
+            List<Future<List<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS * 8; ++i) {
+                int shift = i;
+                futures.add(callers.submit(() -> mapper.map(x -> x + shift, values)));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                int shift = i;
+                Assertions.assertEquals(values.stream().map(x -> x + shift).toList(), futures.get(i).get(1, TimeUnit.MINUTES));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResultsContention() throws Exception {
+        // Every element is a task, so results, counter and exceptions of a call are updated by all workers at once
+        for (int i = 0; i < 10; ++i) {
+            Assertions.assertEquals(squares(), mapper.map(x -> x * x, values, 1));
+            RuntimeException e = Assertions.assertThrows(IllegalStateException.class, () -> mapper.map(x -> {
+                if (x % 10 == 0) {
+                    throw new IllegalStateException("element " + x);
+                }
+                return x;
+            }, values, 1));
+            Assertions.assertEquals(ELEMENTS / 10 - 1, e.getSuppressed().length);
+        }
+
+        // Short calls race the last task against the waiter parking, a lost wakeup would time out
+        for (int i = 0; i < 2000; ++i) {
+            List<Integer> small = values.subList(0, i % (THREADS * 2) + 1);
+            Assertions.assertEquals(small, mapper.map(x -> x, small, 1, TimeUnit.MINUTES));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Assertions.assertThrows(TimeoutException.class,
+                () -> mapper.map(x -> x == 0 ? block(started, x) : x, values, 100, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(squares(), Assertions.assertDoesNotThrow(
+                () -> mapper.map(x -> x * x, values, 1, TimeUnit.MINUTES)));
+        assertUsable();
+    }
+
+    @Test
+    public void testInterrupt() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        Thread interrupter = new Thread(() -> {
+            try {
+                started.await();
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            caller.interrupt();
+        });
+        interrupter.start();
+        // Calling thread only waits, so the interrupt cancels the call instead of reaching f
+        Assertions.assertThrows(InterruptedException.class, () -> mapper.map(x -> block(started, x), values));
+        interrupter.join();
+        assertUsable();
+    }
+
+    @Test
+    public void testCancelAsync() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(THREADS);
+        AtomicInteger calculated = new AtomicInteger();
+        CompletableFuture<List<Integer>> future = mapper.mapAsync(x -> {
+            calculated.incrementAndGet();
+            return block(started, x);
+        }, values);
+        started.await();
+        Assertions.assertTrue(future.cancel(true));
+        assertUsable();
+        Assertions.assertTrue(calculated.get() < ELEMENTS, "Cancelled elements are calculated");
+    }
+
+    @Test
+    public void testCloseDuringMap() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Throwable> thrown = new CompletableFuture<>();
+        Thread caller = new Thread(() -> {
+            try {
+                mapper.map(x -> block(started, x), values);
+                thrown.complete(null);
+            } catch (InterruptedException | RuntimeException e) {
+                thrown.complete(e);
+            }
+        });
+        caller.start();
+        started.await();
+        mapper.close();
+        caller.join();
+        Assertions.assertInstanceOf(CancellationException.class, thrown.join());
+    }
+
+    @Test
+    public void testCloseDuringAsync() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<List<Integer>> future = mapper.mapAsync(x -> block(started, x), values);
+        started.await();
+        mapper.close();
+        Assertions.assertThrows(CancellationException.class, () -> future.get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testCloseDuringPublisher() throws Exception {
+        Recorder<Integer> recorder = new Recorder<>();
+        mapper.mapPublisher(x -> x, values, 16).subscribe(recorder);
+        recorder.request(1);
+        Assertions.assertEquals(List.of(0), recorder.await(1));
+        mapper.close();
+        // Elements after the window are submitted only now, to a closed mapper
+        recorder.request(ELEMENTS);
+        Assertions.assertInstanceOf(CancellationException.class, recorder.error.get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testMapAfterClose() {
+        mapper.close();
+        Assertions.assertThrows(CancellationException.class, () -> mapper.map(Function.identity(), values));
+        Assertions.assertThrows(CancellationException.class, () -> mapper.map(Function.identity(), values, 1, TimeUnit.MINUTES));
+        Assertions.assertThrows(CancellationException.class, () -> mapper.mapAsync(Function.identity(), values).get(1, TimeUnit.MINUTES));
+        Assertions.assertEquals(List.of(), Assertions.assertDoesNotThrow(() -> mapper.map(x -> x, Collections.emptyList())));
+    }
+
+    @Test
+    public void testMapAsync() throws Exception {
+        Assertions.assertEquals(squares(), mapper.mapAsync(x -> x * x, values).get(1, TimeUnit.MINUTES));
+        Assertions.assertEquals(List.of(), mapper.mapAsync(x -> x, List.of()).get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testMapAsyncException() {
+        CompletableFuture<List<Integer>> future = mapper.mapAsync(x -> {
+            if (x % 1000 == 0) {
+                throw new IllegalStateException("element " + x);
+            }
+            return x;
+        }, values);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.MINUTES));
+        Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+        Assertions.assertEquals(ELEMENTS / 1000 - 1, e.getCause().getSuppressed().length);
+    }
+
+    @Test
+    public void testPublisher() throws Exception {
+        Recorder<Integer> recorder = new Recorder<>();
+        mapper.mapPublisher(x -> x * x, values).subscribe(recorder);
+        recorder.request(Long.MAX_VALUE);
+        recorder.complete.get(1, TimeUnit.MINUTES);
+        Assertions.assertEquals(squares(), recorder.items.stream().sorted().toList());
+    }
+
+    @Test
+    public void testWindowOrder() throws Exception {
+        for (int window : new int[]{1, 16, ELEMENTS * 2}) {
+            Recorder<Integer> recorder = new Recorder<>();
+            AtomicInteger ahead = new AtomicInteger();
+            mapper.mapPublisher((Integer x) -> {
+                // Results are passed before the next ones are counted, so only the window may be ahead of them
+                if (x >= recorder.items.size() + window) {
+                    ahead.incrementAndGet();
+                }
+                return x * x;
+            }, values, window).subscribe(recorder);
+            recorder.request(ELEMENTS / 2);
+            recorder.request(ELEMENTS / 2);
+            recorder.complete.get(1, TimeUnit.MINUTES);
+            Assertions.assertEquals(squares(), recorder.items, "window " + window);
+            Assertions.assertEquals(0, ahead.get(), "window " + window);
+        }
+    }
+
+    @Test
+    public void testDemand() throws Exception {
+        int window = 16;
+        Recorder<Integer> recorder = new Recorder<>();
+        AtomicInteger calculated = new AtomicInteger();
+        mapper.mapPublisher((Integer x) -> {
+            calculated.incrementAndGet();
+            return x;
+        }, values, window).subscribe(recorder);
+        recorder.request(5);
+        Assertions.assertEquals(values.subList(0, 5), recorder.await(5));
+        Thread.sleep(100);
+        Assertions.assertEquals(5, recorder.items.size());
+        Assertions.assertTrue(calculated.get() <= 5 + window, "Calculated " + calculated.get() + " elements");
+        Assertions.assertFalse(recorder.complete.isDone());
+
+        recorder.request(ELEMENTS);
+        recorder.complete.get(1, TimeUnit.MINUTES);
+        Assertions.assertEquals(values, recorder.items);
+
+        Recorder<Integer> invalid = new Recorder<>();
+        mapper.mapPublisher(x -> x, values, window).subscribe(invalid);
+        invalid.request(0);
+        Assertions.assertInstanceOf(IllegalArgumentException.class, invalid.error.get(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testPublisherCancel() throws Exception {
+        for (int window : new int[]{0, 16}) {
+            Recorder<Integer> recorder = new Recorder<>();
+            AtomicInteger calculated = new AtomicInteger();
+            Function<Integer, Integer> f = x -> {
+                calculated.incrementAndGet();
+                return x;
+            };
+            (window == 0 ? mapper.mapPublisher(f, values) : mapper.mapPublisher(f, values, window)).subscribe(recorder);
+            recorder.request(10);
+            recorder.await(10);
+            recorder.subscription.cancel();
+            int received = recorder.items.size();
+            recorder.request(ELEMENTS);
+            assertUsable();
+            Assertions.assertEquals(received, recorder.items.size(), "window " + window);
+            Assertions.assertFalse(recorder.complete.isDone(), "window " + window);
+            if (window > 0) {
+                Assertions.assertTrue(calculated.get() <= 10 + window, "Calculated " + calculated.get() + " elements");
+            }
+        }
+    }
+
+    @Test
+    public void testPublisherException() throws Exception {
+        for (int window : new int[]{0, 16}) {
+            Recorder<Integer> recorder = new Recorder<>();
+            Function<Integer, Integer> f = x -> {
+                if (x == ELEMENTS / 2) {
+                    throw new IllegalStateException("element " + x);
+                }
+                return x;
+            };
+            (window == 0 ? mapper.mapPublisher(f, values) : mapper.mapPublisher(f, values, window)).subscribe(recorder);
+            recorder.request(Long.MAX_VALUE);
+            Assertions.assertInstanceOf(IllegalStateException.class, recorder.error.get(1, TimeUnit.MINUTES));
+            Assertions.assertFalse(recorder.complete.isDone(), "window " + window);
+            Assertions.assertTrue(recorder.items.size() < ELEMENTS, "window " + window);
+        }
+
+        Recorder<Integer> nulls = new Recorder<>();
+        mapper.mapPublisher(x -> x == 1 ? null : x, values, 16).subscribe(nulls);
+        nulls.request(Long.MAX_VALUE);
+        Assertions.assertInstanceOf(NullPointerException.class, nulls.error.get(1, TimeUnit.MINUTES));
+        // Error isn't delayed by results, that wait to be passed
+        Assertions.assertTrue(List.of(0).containsAll(nulls.items), nulls.items.toString());
+    }
+
+    @Test
+    public void testThrowingSubscriber() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(THREADS - 1);
+        CountDownLatch interrupted = new CountDownLatch(THREADS - 1);
+        mapper.<Integer, Integer>mapPublisher(x -> {
+            if (x == 0) {
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return x;
+            }
+            started.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return x;
+        }, values).subscribe(new Recorder<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                throw new IllegalStateException("Subscriber failed");
+            }
+        });
+        // Subscriber, that throws, cancels subscription, so workers calculating elements for it are interrupted
+        Assertions.assertTrue(interrupted.await(1, TimeUnit.MINUTES));
+        assertUsable();
+    }
+}
@@ -0,0 +1,224 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hashes files with {@link AsynchronousFileChannel}, so that many files are read at once
+ * without a thread per file.
+ * At most {@code files} files are in flight, every one of them has at most {@code depth} outstanding reads,
+ * so there are at most {@code files * depth} outstanding reads overall.
+ * Chunks of a file may be read out of order, but they are fed to its calculator in order.
+ */
+public class AsyncWalkExecutor extends OrderedWalkExecutor {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final ExecutorService callbacks;
+    private final BlockingQueue<FileHash> idle;
+
+    public AsyncWalkExecutor(Supplier<HashCalculator> factory, int threads, int files, int depth, HashConsumer hashConsumer, HashCache hashCache) {
+        this(factory.get(), factory, threads, files, depth, hashConsumer, hashCache);
+    }
+
+    private AsyncWalkExecutor(HashCalculator first, Supplier<HashCalculator> factory, int threads, int files, int depth, HashConsumer hashConsumer, HashCache hashCache) {
+        super(first.hashLength, files * 2, hashConsumer, hashCache);
+        this.callbacks = Executors.newFixedThreadPool(threads);
+        this.idle = new ArrayBlockingQueue<>(files);
+        idle.add(new FileHash(first, depth));
+        for (int i = 1; i < files; ++i) {
+            idle.add(new FileHash(factory.get(), depth));
+        }
+    }
+
+    @Override
+    protected void schedule(HashTask task) throws IOException {
+        byte[] hash = new byte[hashLength];
+        if (hashCache != null && hashCache.lookup(task.path, task.attrs, hash)) {
+            task.result.complete(hash);
+            return;
+        }
+        try {
+            idle.take().start(task, hash);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while submitting " + task.path);
+        }
+    }
+
+    @Override
+    protected boolean shutdown() {
+        callbacks.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                callbacks.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    // State of one file in flight, reused for the next file once current one is hashed
+    private class FileHash implements CompletionHandler<Integer, Integer> {
+        private final HashCalculator hashCalculator;
+        private final ByteBuffer[] buffers;
+        private final boolean[] ready;
+        private HashTask task;
+        private byte[] hash;
+        private AsynchronousFileChannel channel;
+        private long size;
+        private long chunks;
+        // Next chunk to feed to calculator
+        private long next;
+        private int outstanding;
+        private boolean failed;
+        // Hashing time of the file, added to metrics once it's hashed
+        private long nanos;
+
+        FileHash(HashCalculator hashCalculator, int depth) {
+            this.hashCalculator = hashCalculator;
+            this.buffers = new ByteBuffer[depth];
+            this.ready = new boolean[depth];
+            for (int i = 0; i < depth; ++i) {
+                buffers[i] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            }
+        }
+
+        void start(HashTask task, byte[] hash) {
+            this.task = task;
+            this.hash = hash;
+            try {
+                channel = AsynchronousFileChannel.open(task.path, Set.of(StandardOpenOption.READ), callbacks);
+                size = channel.size();
+            } catch (IOException | RuntimeException e) {
+                // System.err.printf("Couldn't open file %s, so assuming that hash is zero", task.path);
+                failed = true;
+                finish();
+                return;
+            }
+            hashCalculator.reset();
+            chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            int initial;
+            synchronized (this) {
+                initial = (int) Math.min(buffers.length, chunks);
+                outstanding = initial;
+            }
+            if (initial == 0) {
+                finish();
+            }
+            for (int i = 0; i < initial; ++i) {
+                read(i);
+            }
+        }
+
+        private void read(long chunk) {
+            ByteBuffer buffer = buffers[(int) (chunk % buffers.length)];
+            buffer.clear().limit((int) Math.min(CHUNK_SIZE, size - chunk * CHUNK_SIZE));
+            channel.read(buffer, chunk * CHUNK_SIZE, (int) chunk, this);
+        }
+
+        @Override
+        public void completed(Integer bytesRead, Integer chunk) {
+            int slot = chunk % buffers.length;
+            ByteBuffer buffer = buffers[slot];
+            if (bytesRead != -1 && buffer.hasRemaining()) {
+                // Short read, continue reading the same chunk
+                channel.read(buffer, (long) chunk * CHUNK_SIZE + buffer.position(), chunk, this);
+                return;
+            }
+
+            long[] toRead = new long[buffers.length];
+            int count = 0;
+            boolean done;
+            synchronized (this) {
+                --outstanding;
+                ready[slot] = true;
+                while (!failed && next < chunks && ready[(int) (next % buffers.length)]) {
+                    int current = (int) (next % buffers.length);
+                    ready[current] = false;
+                    long start = hashCalculator.metrics == null ? 0 : System.nanoTime();
+                    hashCalculator.update(buffers[current].flip());
+                    if (hashCalculator.metrics != null) {
+                        nanos += System.nanoTime() - start;
+                    }
+                    if (next + buffers.length < chunks) {
+                        toRead[count++] = next + buffers.length;
+                    }
+                    ++next;
+                }
+                outstanding += count;
+                done = outstanding == 0 && (failed || next == chunks);
+            }
+            for (int i = 0; i < count; ++i) {
+                read(toRead[i]);
+            }
+            if (done) {
+                finish();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Integer chunk) {
+            boolean done;
+            synchronized (this) {
+                --outstanding;
+                failed = true;
+                done = outstanding == 0;
+            }
+            if (done) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            HashTask task = this.task;
+            byte[] hash = this.hash;
+            if (failed) {
+                // System.err.printf("Couldn't calculate hash for file %s, so assuming that hash is zero", task.path);
+                if (hashCalculator.metrics != null) {
+                    hashCalculator.metrics.errors.increment();
+                    hashCalculator.metrics.nanos.add(nanos);
+                }
+            } else {
+                long start = hashCalculator.metrics == null ? 0 : System.nanoTime();
+                hashCalculator.digest(hash, 0);
+                if (hashCalculator.metrics != null) {
+                    hashCalculator.metrics.nanos.add(nanos + System.nanoTime() - start);
+                }
+                if (hashCache != null) {
+                    hashCache.store(task.path, task.attrs, hash);
+                }
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+
+            synchronized (this) {
+                this.task = null;
+                this.hash = null;
+                channel = null;
+                next = 0;
+                failed = false;
+                nanos = 0;
+                Arrays.fill(ready, false);
+            }
+            idle.add(this);
+            task.result.complete(hash);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams records of previous walk output, either text or JSON lines, possibly gzipped.
+ * Records must be sorted in {@link PathOrder}, as {@code --sorted} walk writes them, unless order isn't checked.
+ */
+public class BaselineReader implements AutoCloseable {
+    private final BufferedReader reader;
+    private final boolean sorted;
+    private Record next;
+
+    public BaselineReader(Path baseline) throws IOException {
+        this(baseline, true);
+    }
+
+    /**
+     * @param sorted Whether records are checked to be sorted, which {@link #find} relies on
+     */
+    public BaselineReader(Path baseline, boolean sorted) throws IOException {
+        this.sorted = sorted;
+        InputStream in = new BufferedInputStream(Files.newInputStream(baseline));
+        in.mark(2);
+        boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        reader = new BufferedReader(new InputStreamReader(gzip ? new GZIPInputStream(in) : in, StandardCharsets.UTF_8));
+        next = read();
+    }
+
+    public Record peek() {
+        return next;
+    }
+
+    public Record next() throws IOException {
+        Record current = next;
+        next = read();
+        if (sorted && next != null && PathOrder.compare(current.path, next.path) > 0) {
+            throw new IOException("Baseline is not sorted: " + next.path + " goes after " + current.path);
+        }
+        return current;
+    }
+
+    /**
+     * Skips records, that go before {@code path}.
+     *
+     * @return record for {@code path} or {@code null} if there is none
+     */
+    public Record find(String path) throws IOException {
+        while (next != null && PathOrder.compare(next.path, path) < 0) {
+            next();
+        }
+        return next != null && next.path.equals(path) ? next : null;
+    }
+
+    private Record read() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty());
+
+        try {
+            return line.startsWith("{") ? new JsonParser(line).parse() : parseText(line);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IOException("Malformed baseline record: " + line, e);
+        }
+    }
+
+    private static Record parseText(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            throw new IllegalArgumentException("No space between hash and path");
+        }
+        return new Record(line.substring(space + 1), HexFormat.of().parseHex(line, 0, space), -1, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * @param size     File size, or {@code -1} if unknown
+     * @param modified Modification time, or {@code null} if unknown
+     */
+    public record Record(String path, byte[] hash, long size, FileTime modified) {
+    }
+
+    // Parses flat objects, that HashWriter writes
+    private static class JsonParser {
+        private final String line;
+        private int pos;
+
+        JsonParser(String line) {
+            this.line = line;
+        }
+
+        Record parse() {
+            String path = null;
+            byte[] hash = null;
+            long size = -1;
+            FileTime modified = null;
+
+            expect('{');
+            while (line.charAt(pos) != '}') {
+                if (line.charAt(pos) == ',') {
+                    ++pos;
+                }
+                String key = string();
+                expect(':');
+                switch (key) {
+                    case "path" -> path = string();
+                    case "hash" -> hash = HexFormat.of().parseHex(string());
+                    case "size" -> size = number();
+                    case "mtime" -> modified = FileTime.from(Instant.parse(string()));
+                    default -> string();
+                }
+            }
+            if (path == null || hash == null) {
+                throw new IllegalArgumentException("Record must have path and hash");
+            }
+            return new Record(path, hash, size, modified);
+        }
+
+        private void expect(char c) {
+            if (line.charAt(pos++) != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + (pos - 1));
+            }
+        }
+
+        private long number() {
+            int start = pos;
+            while (pos < line.length() && (Character.isDigit(line.charAt(pos)) || line.charAt(pos) == '-')) {
+                ++pos;
+            }
+            return Long.parseLong(line, start, pos, 10);
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            char c;
+            while ((c = line.charAt(pos++)) != '"') {
+                if (c == '\\') {
+                    c = line.charAt(pos++);
+                    if (c == 'u') {
+                        c = (char) Integer.parseInt(line, pos, pos + 4, 16);
+                        pos += 4;
+                    }
+                }
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+    }
+}
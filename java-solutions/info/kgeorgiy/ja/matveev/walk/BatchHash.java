@@ -0,0 +1,14 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.nio.file.Path;
+
+/**
+ * {@link HashCalculator}, that hashes several small files together faster, than one by one.
+ */
+public interface BatchHash {
+    /**
+     * Puts hash of every one of {@code paths} to the same index of {@code hashes},
+     * or {@code null}, if file couldn't be read.
+     */
+    void calculateHashes(Path[] paths, byte[][] hashes);
+}
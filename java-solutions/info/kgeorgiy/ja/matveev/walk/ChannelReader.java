@@ -0,0 +1,67 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Feeds file content to a consumer via {@link FileChannel}.
+ * Files smaller than {@code mapThreshold} are read through a reused direct buffer,
+ * larger ones are memory-mapped window by window, so a window never exceeds {@value MAP_WINDOW} bytes.
+ * Windows, that were consumed, aren't unmapped explicitly: they stay mapped until collected,
+ * so address space taken by mappings isn't bounded by a single window.
+ */
+public class ChannelReader {
+    static final long DEFAULT_MAP_THRESHOLD = 1 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAP_WINDOW = 1 << 26;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final long mapThreshold;
+
+    public ChannelReader(long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+    }
+
+    public void read(Path path, Consumer<ByteBuffer> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= mapThreshold) {
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    consumer.accept(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position)));
+                }
+            } else {
+                while (channel.read(buffer.clear()) != -1) {
+                    consumer.accept(buffer.flip());
+                }
+            }
+        }
+    }
+
+    /**
+     * Feeds up to {@code length} bytes of file starting from {@code offset}.
+     *
+     * @return number of bytes fed, which is less than {@code length} only if file is shorter
+     */
+    public long read(Path path, long offset, long length, Consumer<ByteBuffer> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long end = offset + Math.max(0, Math.min(length, channel.size() - offset));
+            long position = offset;
+            if (end - offset >= mapThreshold) {
+                for (; position < end; position += Math.min(MAP_WINDOW, end - position)) {
+                    consumer.accept(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, end - position)));
+                }
+            } else {
+                int read;
+                while (position < end && (read = channel.read(buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position)), position)) != -1) {
+                    position += read;
+                    consumer.accept(buffer.flip());
+                }
+            }
+            return position - offset;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Calculates hash of another {@link HashCalculator} and, in the same read pass, splits file into
+ * content-defined chunks with gear rolling hash. Chunk digests of every hashed file are added to {@link DedupIndex}.
+ * Cut points depend only on preceding bytes of the chunk, so insertion into a file shifts only nearby chunks.
+ */
+public class ChunkingHash extends HashCalculator {
+    static final int MIN_CHUNK = 2 << 10;
+    static final int MAX_CHUNK = 64 << 10;
+    // Cut when low 13 bits of rolling hash are zero, so average chunk is about MIN_CHUNK + 8 KiB
+    private static final long MASK = (1 << 13) - 1;
+    private static final long[] GEAR = new SplittableRandom(0x5EED).longs(256).toArray();
+
+    private final HashCalculator hashCalculator;
+    private final DedupIndex dedupIndex;
+    private final XxHash64 chunkHash = new XxHash64();
+    private long gear;
+    private int chunkSize;
+    private long[] chunks = new long[16];
+    private int[] lengths = new int[16];
+    private int count;
+
+    public ChunkingHash(HashCalculator hashCalculator, DedupIndex dedupIndex) {
+        super(hashCalculator.hashLength);
+        this.hashCalculator = hashCalculator;
+        this.dedupIndex = dedupIndex;
+        this.reader = hashCalculator.reader;
+    }
+
+    @Override
+    void calculateHash(Path path, byte[] hash) throws IOException {
+        super.calculateHash(path, hash);
+        dedupIndex.add(path.toString(), chunks, lengths, count);
+    }
+
+    @Override
+    protected void reset() {
+        hashCalculator.reset();
+        chunkHash.reset();
+        gear = 0;
+        chunkSize = 0;
+        count = 0;
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        hashCalculator.update(buffer);
+
+        for (int i = start; i < limit; ++i) {
+            gear = (gear << 1) + GEAR[buffer.get(i) & 0xFF];
+            if (++chunkSize >= MIN_CHUNK && ((gear & MASK) == 0 || chunkSize >= MAX_CHUNK)) {
+                chunkHash.update(buffer.slice(start, i + 1 - start));
+                cut();
+                start = i + 1;
+            }
+        }
+        if (start < limit) {
+            chunkHash.update(buffer.slice(start, limit - start));
+        }
+    }
+
+    private void cut() {
+        if (count == chunks.length) {
+            chunks = Arrays.copyOf(chunks, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+        }
+        chunks[count] = chunkHash.value();
+        lengths[count] = chunkSize;
+        ++count;
+        chunkHash.reset();
+        gear = 0;
+        chunkSize = 0;
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        if (chunkSize > 0) {
+            cut();
+        }
+        hashCalculator.digest(hash, offset);
+    }
+}
@@ -3,33 +3,63 @@ package info.kgeorgiy.ja.matveev.walk;
 import java.io.*;
 import java.nio.file.*;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class CommonWalk {
 
     public static void run(String[] args, boolean isRecursive) {
-        HashCalculator hashCalculator = null;
-        if (args == null || args.length < 2 || args.length > 3) {
-            // System.err.println("Wrong number of arguments. Usage: input_file output_file [hash_function]");
+        run(args, isRecursive, new WalkMetrics());
+    }
+
+    /**
+     * Runs walk, counting it in {@code metrics}.
+     */
+    static void run(String[] args, boolean isRecursive, WalkMetrics metrics) {
+        WalkOptions options = WalkOptions.parse(args);
+        if (options == null) {
             return;
         }
-        for (int i = 0; i < args.length; ++i) {
-            if (args[i] == null) {
-                // System.err.printf("Argument %d is null%n", i);
-                return;
-            }
+        args = options.positional;
+        if (options.verify && args.length == 2) {
+            // Output doesn't tell its algorithm, and another one of the same hash length would report every file as changed
+            throw new IllegalArgumentException("Verification needs the hash function, that output was written with");
         }
-        if (args.length == 2 || args[2].equals("jenkins")) {
-            hashCalculator = new JenkinsHash();
-        } else if (args[2].equals("sha-1")) {
+
+        String algorithm = args.length == 2 ? "jenkins" : args[2];
+        HashCalculator hashCalculator;
+        try {
+            hashCalculator = HashCalculators.create(algorithm, options.mapThreshold);
+        } catch (NoSuchAlgorithmException e) {
+            // System.err.println("Sorry, we don't have " + algorithm + " implementation");
+            System.exit(1);
+            return;
+        }
+        if (hashCalculator == null) {
+            // System.err.println("Unknown algorithm " + algorithm + ", known are " + HashCalculators.names());
+            return;
+        }
+
+        Supplier<HashCalculator> factory = HashCalculators.factory(algorithm, options.mapThreshold);
+        DedupIndex dedupIndex = options.dedupFile == null ? null : new DedupIndex();
+        if (dedupIndex != null) {
+            hashCalculator = new ChunkingHash(hashCalculator, dedupIndex);
+            factory = chunking(factory, dedupIndex);
+        }
+        WalkMetrics.Hashing hashing = metrics.hashing(algorithm);
+        hashCalculator.metrics = hashing;
+        factory = metered(factory, hashing);
+
+        HashCache hashCache = null;
+        if (options.cacheFile != null) {
             try {
-                hashCalculator = new Sha1Hash();
-            } catch (NoSuchAlgorithmException e) {
-                // System.err.println("Sorry, we don't have sha-1 implementation");
-                System.exit(1);
+                hashCache = HashCache.load(Paths.get(options.cacheFile), algorithm, hashCalculator.hashLength);
+            } catch (InvalidPathException e) {
+                // System.err.printf("EXCEPTION: cache file %s has invalid path. %s", options.cacheFile, e);
+                return;
             }
-        } else {
-            // System.err.println("Unknown algorithm " + args[2]);
-            return;
         }
 
         String inputFile = args[0];
@@ -57,36 +87,81 @@ public class CommonWalk {
         } catch (IOException | SecurityException ignored) {
         }
 
-        try (HashWriter hashWriter = new HashWriter(outputPath)) {
-            Visitor visitor = new Visitor(hashCalculator, hashWriter);
+        if (options.verify) {
+            verify(options, inputPath, outputPath, factory, hashCalculator, hashCache, metrics);
+            return;
+        }
+
+        BaselineReader[] baselines = new BaselineReader[2];
+        if (options.diffFile != null) {
+            try {
+                // One reader is consulted while traversing, another one while writing results
+                baselines[0] = new BaselineReader(Paths.get(options.diffFile));
+                baselines[1] = new BaselineReader(Paths.get(options.diffFile));
+            } catch (IOException | InvalidPathException | SecurityException e) {
+                // System.err.println("EXCEPTION: Couldn't read baseline " + options.diffFile + ": " + e);
+                closeBaselines(baselines);
+                return;
+            }
+        }
+
+        ParallelWalker parallelWalker = options.walkThreads == 0 ? null : new ParallelWalker(options.walkThreads, options.sorted);
+        InputPrefetcher prefetcher = options.prefetch == 0 ? null : new InputPrefetcher(options.prefetch);
+        try (HashWriter hashWriter = new HashWriter(outputPath, options)) {
+            DiffWriter diffWriter = baselines[1] == null ? null : new DiffWriter(hashWriter, baselines[1]);
+            HashConsumer hashConsumer = metrics.meter(diffWriter == null ? hashWriter : diffWriter);
+            WalkExecutor executor = createExecutor(options, factory, hashCalculator, hashConsumer, hashCache);
+            WalkExecutor walkExecutor = baselines[0] == null ? executor : new DiffWalkExecutor(executor, baselines[0], hashCalculator.hashLength, hashCache);
+            metrics.setQueueDepth(walkExecutor::queueDepth);
+            metrics.register();
+            ScheduledExecutorService progress = options.progressMillis == 0 ? null : startProgress(metrics, options.progressMillis);
+            TreeWalker treeWalker = parallelWalker != null ? parallelWalker
+                    : options.sorted ? SortedWalker::walkFileTree : Files::walkFileTree;
 
             try (var bufferedReader = Files.newBufferedReader(inputPath)) {
-                String filename;
-                while ((filename = bufferedReader.readLine()) != null) {
-                    Path filePath;
-                    try {
-                        filePath = Paths.get(filename);
-                    } catch (InvalidPathException e) {
-                        hashWriter.writeHash(filename, hashCalculator.zeroHash);
-                        continue;
-                    }
+                Iterable<String> filenames = options.sorted
+                        ? bufferedReader.lines().sorted(PathOrder.COMPARATOR).toList()
+                        : bufferedReader.lines()::iterator;
+                if (prefetcher != null) {
+                    filenames = prefetcher.prefetch(filenames);
+                }
+                for (String filename : filenames) {
+                    WalkExecutor.Subwalk subwalk = lineExecutor -> walkLine(filename, lineExecutor, treeWalker, isRecursive, metrics);
                     try {
-                        if (isRecursive) {
-                            Files.walkFileTree(filePath, visitor);
-                        } else {
-                            if (Files.isDirectory(filePath) || !Files.exists(filePath)) {
-                                hashWriter.writeHash(filename, hashCalculator.zeroHash);
-                            } else {
-                                Files.walkFileTree(filePath, visitor);
-                            }
+                        if (!walkExecutor.fork(subwalk)) {
+                            subwalk.walk(walkExecutor);
                         }
                     } catch (IOException | SecurityException e) {
                         // System.out.println("EXCEPTION: Couldn't write result to output file " + outputFile);
+                        metrics.writeErrors.increment();
                     }
                 }
-            } catch (IOException | SecurityException e) {
+            } catch (IOException | UncheckedIOException | SecurityException e) {
                 // System.out.println("EXCEPTION: Couldn't read line from input file " + inputFile);
             } finally {
+                try {
+                    walkExecutor.close();
+                } catch (IOException | SecurityException e) {
+                    // System.err.println("EXCEPTION: Couldn't write result to output file " + outputFile);
+                    metrics.writeErrors.increment();
+                }
+                stopProgress(progress, metrics);
+                metrics.unregister();
+                if (dedupIndex != null) {
+                    try {
+                        dedupIndex.write(Paths.get(options.dedupFile));
+                    } catch (IOException | InvalidPathException | SecurityException e) {
+                        // System.err.println("EXCEPTION: Couldn't write dedup report " + options.dedupFile);
+                    }
+                }
+                if (diffWriter != null) {
+                    try {
+                        diffWriter.close();
+                    } catch (IOException | SecurityException e) {
+                        // System.err.println("EXCEPTION: Couldn't write removed entries to output file " + outputFile);
+                    }
+                }
+                saveCache(hashCache, options.cacheFile);
                 try {
                     hashWriter.close();
                 } catch (IOException | SecurityException e) {
@@ -95,6 +170,124 @@ public class CommonWalk {
             }
         } catch (IOException | SecurityException e) {
             // System.err.println("EXCEPTION: Couldn't open file " + outputFile + " for writing");
+        } finally {
+            if (parallelWalker != null) {
+                parallelWalker.close();
+            }
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+            closeBaselines(baselines);
+        }
+    }
+
+    private static void walkLine(String filename, WalkExecutor walkExecutor, TreeWalker treeWalker,
+                                 boolean isRecursive, WalkMetrics metrics) throws IOException {
+        Path filePath;
+        try {
+            filePath = Paths.get(filename);
+        } catch (InvalidPathException e) {
+            metrics.invalidPaths.increment();
+            walkExecutor.zero(filename);
+            return;
+        }
+        if (!isRecursive && (Files.isDirectory(filePath) || !Files.exists(filePath))) {
+            metrics.visitErrors.increment();
+            walkExecutor.zero(filename);
+        } else {
+            treeWalker.walkFileTree(filePath, new Visitor(walkExecutor, isRecursive ? treeWalker : null, metrics));
+        }
+    }
+
+    private static void verify(WalkOptions options, Path inputPath, Path outputPath, Supplier<HashCalculator> factory,
+                               HashCalculator hashCalculator, HashCache hashCache, WalkMetrics metrics) {
+        try (BaselineReader records = new BaselineReader(inputPath, false)) {
+            if (records.peek() != null && records.peek().hash().length != hashCalculator.hashLength) {
+                throw new IllegalArgumentException("Hashes in " + inputPath + " have " + records.peek().hash().length
+                        + " bytes, but the hash function gives " + hashCalculator.hashLength);
+            }
+            try (HashWriter hashWriter = new HashWriter(outputPath, options)) {
+                HashVerifier verifier = new HashVerifier(hashWriter);
+                WalkExecutor walkExecutor = createExecutor(options, factory, hashCalculator, metrics.meter(verifier), hashCache);
+                metrics.setQueueDepth(walkExecutor::queueDepth);
+                metrics.register();
+                ScheduledExecutorService progress = options.progressMillis == 0 ? null : startProgress(metrics, options.progressMillis);
+                try {
+                    verifier.verify(records, walkExecutor, options.maxFailures, options.maxRate);
+                } finally {
+                    try {
+                        walkExecutor.close();
+                    } catch (IOException | SecurityException e) {
+                        // System.err.println("EXCEPTION: Couldn't write verification report " + outputPath);
+                        metrics.writeErrors.increment();
+                    }
+                    stopProgress(progress, metrics);
+                    metrics.unregister();
+                    saveCache(hashCache, options.cacheFile);
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            // System.err.println("EXCEPTION: Couldn't verify " + inputPath + ": " + e);
+        }
+    }
+
+    private static void saveCache(HashCache hashCache, String cacheFile) {
+        if (hashCache != null) {
+            try {
+                hashCache.save();
+            } catch (IOException | SecurityException e) {
+                // System.err.println("EXCEPTION: Couldn't save hash cache " + cacheFile);
+            }
+        }
+    }
+
+    private static void stopProgress(ScheduledExecutorService progress, WalkMetrics metrics) {
+        if (progress != null) {
+            progress.shutdownNow();
+            System.err.println("walk: " + metrics.progressLine());
+        }
+    }
+
+    private static ScheduledExecutorService startProgress(WalkMetrics metrics, long millis) {
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().factory());
+        progress.scheduleAtFixedRate(() -> System.err.println("walk: " + metrics.progressLine()), millis, millis, TimeUnit.MILLISECONDS);
+        return progress;
+    }
+
+    static WalkExecutor createExecutor(WalkOptions options, Supplier<HashCalculator> factory, HashCalculator hashCalculator,
+                                               HashConsumer hashConsumer, HashCache hashCache) {
+        return switch (options.mode) {
+            case "virtual" -> new VirtualWalkExecutor(factory,
+                    options.openFiles == 0 ? options.threads * 4 : options.openFiles, hashConsumer, hashCache);
+            case "async" -> new AsyncWalkExecutor(factory, options.threads,
+                    options.asyncFiles == 0 ? options.threads * 4 : options.asyncFiles, options.asyncDepth,
+                    hashConsumer, hashCache);
+            default -> options.threads == 1
+                    ? new SequentialWalkExecutor(hashCalculator, hashConsumer, hashCache)
+                    : new ParallelWalkExecutor(factory, options.threads, options.batchSize, options.splitSize, hashConsumer, hashCache);
+        };
+    }
+
+    private static Supplier<HashCalculator> chunking(Supplier<HashCalculator> factory, DedupIndex dedupIndex) {
+        return () -> new ChunkingHash(factory.get(), dedupIndex);
+    }
+
+    private static Supplier<HashCalculator> metered(Supplier<HashCalculator> factory, WalkMetrics.Hashing metrics) {
+        return () -> {
+            HashCalculator hashCalculator = factory.get();
+            hashCalculator.metrics = metrics;
+            return hashCalculator;
+        };
+    }
+
+    private static void closeBaselines(BaselineReader[] baselines) {
+        for (BaselineReader baseline : baselines) {
+            if (baseline != null) {
+                try {
+                    baseline.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 }
@@ -0,0 +1,34 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class CompositeHash extends HashCalculator {
+    private final List<HashCalculator> parts;
+
+    public CompositeHash(List<HashCalculator> parts) {
+        super(parts.stream().mapToInt(part -> part.hashLength).sum());
+        this.parts = parts;
+    }
+
+    @Override
+    protected void reset() {
+        parts.forEach(HashCalculator::reset);
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        int position = buffer.position();
+        for (HashCalculator part : parts) {
+            part.update(buffer.position(position));
+        }
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        for (HashCalculator part : parts) {
+            part.digest(hash, offset);
+            offset += part.hashLength;
+        }
+    }
+}
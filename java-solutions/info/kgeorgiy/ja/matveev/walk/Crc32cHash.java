@@ -0,0 +1,116 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+public class Crc32cHash extends HashCalculator implements SplittableHash {
+    // Reversed Castagnoli polynomial
+    private static final int POLY = 0x82F63B78;
+
+    private final CRC32C crc = new CRC32C();
+
+    public Crc32cHash() {
+        super(4);
+    }
+
+    @Override
+    protected void reset() {
+        crc.reset();
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        crc.update(buffer);
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        putInt(hash, offset, (int) crc.getValue());
+    }
+
+    @Override
+    public long alignment() {
+        return 1;
+    }
+
+    @Override
+    public int stateLength(long size, long pieceSize) {
+        return Math.toIntExact(SplittableHash.pieces(size, pieceSize) * 4);
+    }
+
+    @Override
+    public void calculatePiece(Path path, long size, long pieceSize, long offset, byte[] state) throws IOException {
+        long length = SplittableHash.pieceLength(size, pieceSize, offset);
+        crc.reset();
+        if (reader.read(path, offset, length, crc::update) != length) {
+            throw new IOException("File " + path + " was truncated while hashing");
+        }
+        putInt(state, (int) (offset / pieceSize) * 4, (int) crc.getValue());
+    }
+
+    @Override
+    public void combine(long size, long pieceSize, byte[] state, byte[] hash) {
+        int value = getInt(state, 0);
+        for (int i = 4; i < state.length; i += 4) {
+            value = combine(value, getInt(state, i), SplittableHash.pieceLength(size, pieceSize, i / 4 * pieceSize));
+        }
+        putInt(hash, 0, value);
+    }
+
+    private static int getInt(byte[] state, int offset) {
+        return ByteBuffer.wrap(state, offset, 4).getInt();
+    }
+
+    /**
+     * Returns CRC of concatenation of two blocks by their CRCs, like {@code crc32_combine} of zlib:
+     * CRC of the first block is shifted through {@code length2} zero bytes with squared GF(2) operator matrices.
+     */
+    static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        int[] odd = new int[32];
+        int[] even = new int[32];
+        // Operator for one zero bit
+        odd[0] = POLY;
+        for (int n = 1, row = 1; n < 32; n++, row <<= 1) {
+            odd[n] = row;
+        }
+        square(even, odd);
+        square(odd, even);
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
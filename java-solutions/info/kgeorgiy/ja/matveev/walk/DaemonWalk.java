@@ -0,0 +1,16 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+/**
+ * Recursive walk, that keeps output up to date with changes of the walked trees until the process is stopped.
+ */
+public class DaemonWalk {
+
+    public static void main(String[] args) {
+        WalkDaemon daemon = WalkDaemon.create(args);
+        if (daemon == null) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+        daemon.run();
+    }
+}
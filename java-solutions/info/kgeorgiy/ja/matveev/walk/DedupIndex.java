@@ -0,0 +1,221 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of content-defined chunks of walked files, that reports duplicate files and chunks shared between files.
+ * Chunk is shared, if it occurs in more than one file, so chunks repeated within a file don't count.
+ * Report is sorted by path with {@link PathOrder}, so it doesn't depend on order, files were hashed in.
+ * Chunks are keyed by their 64-bit digests in primitive open addressing tables, and chunk lists of files
+ * are kept in a single {@code long} arena, so index costs a few dozen bytes per chunk and no objects.
+ * Files are identified by fingerprint of their chunk list, that doesn't depend on the walk hash algorithm.
+ */
+public class DedupIndex {
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    private final LongTable chunkTable = new LongTable();
+    // Length of every distinct chunk and the last file + 1, it occurred in, by chunk table entry
+    private int[] chunkLengths = new int[1 << 10];
+    private int[] chunkFiles = new int[1 << 10];
+    private long[] arena = new long[1 << 12];
+    private int arenaSize;
+
+    private final PathStore paths = new PathStore();
+    private long[] fingerprints = new long[1 << 10];
+    private long[] sizes = new long[1 << 10];
+    private int[] starts = new int[1 << 10];
+
+    /**
+     * Adds file with first {@code count} chunks of {@code chunks} and their {@code lengths}.
+     */
+    public synchronized void add(String path, long[] chunks, int[] lengths, int count) {
+        int file = paths.size();
+        if (file == sizes.length) {
+            fingerprints = Arrays.copyOf(fingerprints, file * 2);
+            sizes = Arrays.copyOf(sizes, file * 2);
+            starts = Arrays.copyOf(starts, file * 2);
+        }
+        if (arenaSize + count > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arenaSize + count, arena.length * 2));
+        }
+
+        long fingerprint = 0;
+        long size = 0;
+        for (int i = 0; i < count; ++i) {
+            fingerprint = (Long.rotateLeft(fingerprint, 31) ^ chunks[i]) * PRIME;
+            size += lengths[i];
+            int entry = chunkTable.put(chunks[i]);
+            if (entry == chunkLengths.length) {
+                chunkLengths = Arrays.copyOf(chunkLengths, entry * 2);
+                chunkFiles = Arrays.copyOf(chunkFiles, entry * 2);
+            }
+            chunkLengths[entry] = lengths[i];
+            // Chunks are counted once per file
+            if (chunkFiles[entry] != file + 1) {
+                chunkFiles[entry] = file + 1;
+                ++chunkTable.counts[entry];
+            }
+        }
+        System.arraycopy(chunks, 0, arena, arenaSize, count);
+
+        paths.add(path);
+        fingerprints[file] = fingerprint ^ size;
+        sizes[file] = size;
+        starts[file] = arenaSize;
+        arenaSize += count;
+    }
+
+    /**
+     * Writes summary, groups of identical files and files, that share chunks with other files.
+     */
+    public synchronized void write(Path reportPath) throws IOException {
+        LongTable fileTable = new LongTable();
+        long totalBytes = 0;
+        for (int file = 0; file < paths.size(); ++file) {
+            if (sizes[file] > 0) {
+                fileTable.increment(fingerprints[file]);
+            }
+            totalBytes += sizes[file];
+        }
+        long uniqueBytes = 0;
+        for (int entry = 0; entry < chunkTable.size; ++entry) {
+            uniqueBytes += chunkLengths[entry];
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+            writer.write(String.format(Locale.ROOT, "files %d, bytes %d, chunks %d, unique chunks %d, unique bytes %d, dedup ratio %.4f%n",
+                    paths.size(), totalBytes, arenaSize, chunkTable.size, uniqueBytes,
+                    totalBytes == 0 ? 0.0 : 1 - (double) uniqueBytes / totalBytes));
+
+            // Only reported files are boxed, so boxing here is bounded by their number
+            Map<Long, List<Integer>> groups = new HashMap<>();
+            List<Integer> sharing = new ArrayList<>();
+            for (int file = 0; file < paths.size(); ++file) {
+                if (sizes[file] > 0 && fileTable.count(fingerprints[file]) > 1) {
+                    groups.computeIfAbsent(fingerprints[file], key -> new ArrayList<>()).add(file);
+                } else if (sizes[file] > 0 && sharedBytes(file) > 0) {
+                    sharing.add(file);
+                }
+            }
+            Comparator<Integer> byPath = Comparator.comparing(paths::get, PathOrder.COMPARATOR);
+            groups.values().forEach(group -> group.sort(byPath));
+            List<List<Integer>> sortedGroups = new ArrayList<>(groups.values());
+            sortedGroups.sort(Comparator.comparing(List::getFirst, byPath));
+            for (List<Integer> group : sortedGroups) {
+                writer.write(String.format("duplicate %016x %d bytes%n", fingerprints[group.getFirst()], sizes[group.getFirst()]));
+                for (int file : group) {
+                    writer.write("  " + paths.get(file) + System.lineSeparator());
+                }
+            }
+
+            sharing.sort(byPath);
+            for (int file : sharing) {
+                writer.write(String.format(Locale.ROOT, "shared %.4f %s%n", (double) sharedBytes(file) / sizes[file], paths.get(file)));
+            }
+        }
+    }
+
+    private long sharedBytes(int file) {
+        long shared = 0;
+        int end = file + 1 < paths.size() ? starts[file + 1] : arenaSize;
+        for (int i = starts[file]; i < end; ++i) {
+            int entry = chunkTable.find(arena[i]);
+            if (chunkTable.counts[entry] > 1) {
+                shared += chunkLengths[entry];
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Counts occurrences of {@code long} keys.
+     */
+    private static class LongTable {
+        private long[] keys = new long[1 << 11];
+        // Entry index + 1 for every slot
+        private int[] entries = new int[1 << 11];
+        int[] counts = new int[1 << 10];
+        int size;
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = spread(key) & mask; entries[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return entries[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        int count(long key) {
+            int entry = find(key);
+            return entry < 0 ? 0 : counts[entry];
+        }
+
+        /**
+         * @return entry of {@code key}
+         */
+        int increment(long key) {
+            int entry = put(key);
+            ++counts[entry];
+            return entry;
+        }
+
+        /**
+         * Adds {@code key} with zero count, unless it's present.
+         *
+         * @return entry of {@code key}
+         */
+        int put(long key) {
+            int entry = find(key);
+            if (entry < 0) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    grow();
+                }
+                if (size == counts.length) {
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                entry = size++;
+                insert(key, entry);
+            }
+            return entry;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldEntries = entries;
+            keys = new long[oldKeys.length * 2];
+            entries = new int[oldEntries.length * 2];
+            for (int slot = 0; slot < oldKeys.length; ++slot) {
+                if (oldEntries[slot] != 0) {
+                    insert(oldKeys[slot], oldEntries[slot] - 1);
+                }
+            }
+        }
+
+        private void insert(long key, int entry) {
+            int mask = keys.length - 1;
+            int slot = spread(key) & mask;
+            while (entries[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            entries[slot] = entry + 1;
+        }
+
+        private static int spread(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
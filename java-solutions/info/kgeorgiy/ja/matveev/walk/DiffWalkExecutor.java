@@ -0,0 +1,63 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Skips hashing of files, whose size and modification time match the baseline record,
+ * passing baseline hash instead. Baseline hashes of another length were calculated by another algorithm,
+ * so such files are hashed anyway. Reused hashes are stored in {@code hashCache}, as if they were calculated.
+ */
+public class DiffWalkExecutor implements WalkExecutor {
+    private final WalkExecutor walkExecutor;
+    private final BaselineReader baseline;
+    private final int hashLength;
+    private final HashCache hashCache;
+
+    public DiffWalkExecutor(WalkExecutor walkExecutor, BaselineReader baseline, int hashLength, HashCache hashCache) {
+        this.walkExecutor = walkExecutor;
+        this.baseline = baseline;
+        this.hashLength = hashLength;
+        this.hashCache = hashCache;
+    }
+
+    @Override
+    public void hash(Path file, BasicFileAttributes attrs) throws IOException {
+        String filename = file.toString();
+        BaselineReader.Record record = baseline.find(filename);
+        if (record != null && record.hash().length == hashLength
+                && record.size() == attrs.size() && attrs.lastModifiedTime().equals(record.modified())) {
+            if (hashCache != null) {
+                hashCache.store(file, attrs, record.hash());
+            }
+            walkExecutor.known(filename, record.hash(), attrs);
+        } else {
+            walkExecutor.hash(file, attrs);
+        }
+    }
+
+    @Override
+    public void zero(String filename) throws IOException {
+        walkExecutor.zero(filename);
+    }
+
+    @Override
+    public void known(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        walkExecutor.known(filename, hash, attrs);
+    }
+
+    @Override
+    public int queueDepth() {
+        return walkExecutor.queueDepth();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            walkExecutor.close();
+        } finally {
+            baseline.close();
+        }
+    }
+}
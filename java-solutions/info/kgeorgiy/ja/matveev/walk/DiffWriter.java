@@ -0,0 +1,53 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Merges sorted walk results with sorted baseline and writes only added, removed and changed entries.
+ */
+public class DiffWriter implements HashConsumer, AutoCloseable {
+    private final HashWriter hashWriter;
+    private final BaselineReader baseline;
+
+    public DiffWriter(HashWriter hashWriter, BaselineReader baseline) {
+        this.hashWriter = hashWriter;
+        this.baseline = baseline;
+    }
+
+    @Override
+    public void accept(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        while (baseline.peek() != null && PathOrder.compare(baseline.peek().path(), filename) < 0) {
+            removed(baseline.next());
+        }
+
+        BaselineReader.Record record = baseline.peek();
+        if (record == null || !record.path().equals(filename)) {
+            hashWriter.writeHash(HashWriter.Change.ADDED, filename, hash, attrs);
+        } else {
+            baseline.next();
+            if (!Arrays.equals(record.hash(), hash)) {
+                hashWriter.writeHash(HashWriter.Change.CHANGED, filename, hash, attrs);
+            }
+        }
+    }
+
+    private void removed(BaselineReader.Record record) throws IOException {
+        hashWriter.writeHash(HashWriter.Change.REMOVED, record.path(), record.hash(), null);
+    }
+
+    /**
+     * Writes baseline records, that weren't met in the walk, as removed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (baseline.peek() != null) {
+                removed(baseline.next());
+            }
+        } finally {
+            baseline.close();
+        }
+    }
+}
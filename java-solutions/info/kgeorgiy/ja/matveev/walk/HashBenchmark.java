@@ -0,0 +1,162 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures throughput of every registered {@link HashCalculator} on a temporary file,
+ * and of {@link HashWriter} against formatting lines with {@link String#format}.
+ * Allocation is measured for the benchmark thread, which does all the work here.
+ * Usage: {@code HashBenchmark [size_mb] [iterations]}.
+ */
+public class HashBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int LINES = 1_000_000;
+    private static final int SMALL_FILES = 4096;
+    private static final int BATCH = 64;
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("hash-benchmark", ".bin");
+        try {
+            byte[] data = new byte[1 << 20];
+            new Random(0).nextBytes(data);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (int i = 0; i < sizeMb; ++i) {
+                    out.write(data);
+                }
+            }
+
+            for (String name : HashCalculators.names()) {
+                HashCalculator hashCalculator = HashCalculators.create(name, ChannelReader.DEFAULT_MAP_THRESHOLD);
+                byte[] hash = new byte[hashCalculator.hashLength];
+                for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+                    hashCalculator.calculateHash(file, hash);
+                }
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    hashCalculator.calculateHash(file, hash);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-12s %10.1f MB/s %12d B/file%n", name, sizeMb * (double) iterations / seconds,
+                        (allocatedBytes() - allocated) / iterations);
+            }
+
+            byte[] hash = new byte[20];
+            new Random(0).nextBytes(hash);
+            for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+                writeLines(file, hash);
+                formatLines(file, hash);
+            }
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                writeLines(file, hash);
+            }
+            System.out.printf("%-12s %10.1f lines/ms %10.1f B/line%n", "writer", LINES * (double) iterations / ((System.nanoTime() - start) / 1e6),
+                    (allocatedBytes() - allocated) / ((double) LINES * iterations));
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                formatLines(file, hash);
+            }
+            System.out.printf("%-12s %10.1f lines/ms %10.1f B/line%n", "format", LINES * (double) iterations / ((System.nanoTime() - start) / 1e6),
+                    (allocatedBytes() - allocated) / ((double) LINES * iterations));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        benchmarkBatch(iterations);
+    }
+
+    /**
+     * Compares hashing small files by {@link JenkinsHash} one by one and by {@link BatchHash batches}.
+     */
+    private static void benchmarkBatch(int iterations) throws IOException {
+        Path directory = Files.createTempDirectory("hash-benchmark");
+        Random random = new Random(0);
+        Path[] paths = new Path[SMALL_FILES];
+        try {
+            for (int i = 0; i < SMALL_FILES; ++i) {
+                byte[] data = new byte[random.nextInt((int) ParallelWalkExecutor.SMALL_FILE)];
+                random.nextBytes(data);
+                paths[i] = Files.write(directory.resolve("f" + i), data);
+            }
+
+            JenkinsHash jenkinsHash = new JenkinsHash();
+            byte[] hash = new byte[jenkinsHash.hashLength];
+            byte[][] hashes = new byte[BATCH][];
+            measureFiles("jenkins 1x", iterations, () -> {
+                for (Path path : paths) {
+                    jenkinsHash.calculateHash(path, hash);
+                }
+            });
+            measureFiles("jenkins " + BATCH + "x", iterations, () -> {
+                for (int k = 0; k < SMALL_FILES; k += BATCH) {
+                    jenkinsHash.calculateHashes(Arrays.copyOfRange(paths, k, k + BATCH), hashes);
+                }
+            });
+        } finally {
+            for (Path path : paths) {
+                if (path != null) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private interface Pass {
+        void run() throws IOException;
+    }
+
+    private static void measureFiles(String name, int iterations, Pass pass) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            pass.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            pass.run();
+        }
+        System.out.printf("%-12s %10.1f files/ms%n", name, SMALL_FILES * (double) iterations / ((System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Returns bytes allocated by the current thread so far.
+     */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static void writeLines(Path file, byte[] hash) throws IOException {
+        try (HashWriter hashWriter = new HashWriter(file)) {
+            for (int i = 0; i < LINES; ++i) {
+                hashWriter.writeHash("/some/rather/deep/directory/file.txt", hash);
+            }
+        }
+    }
+
+    // How lines were written before HashWriter encoded hex itself
+    private static void formatLines(Path file, byte[] hash) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < LINES; ++i) {
+                StringBuilder sb = new StringBuilder(hash.length * 2);
+                for (byte b : hash) {
+                    sb.append(String.format("%02x", b));
+                }
+                writer.write(String.format("%s %s%n", sb, "/some/rather/deep/directory/file.txt"));
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of file hashes, keyed by path and validated by size, modification time and file key.
+ * Entries are kept in primitive arrays and paths in a {@link PathStore}, so millions of entries don't turn into
+ * millions of {@code String}s.
+ * Cache that was loaded is never modified, entries seen during the walk are collected into new table,
+ * which replaces cache file on {@link #save()}.
+ */
+public class HashCache {
+    private static final int MAGIC = 0x57484332;
+    private static final byte[] NO_FILE_KEY = new byte[0];
+
+    private final Path cachePath;
+    private final String algorithm;
+    private final int hashLength;
+    private final Table previous;
+    private final Table current;
+
+    private HashCache(Path cachePath, String algorithm, int hashLength, Table previous) {
+        this.cachePath = cachePath;
+        this.algorithm = algorithm;
+        this.hashLength = hashLength;
+        this.previous = previous;
+        this.current = new Table(hashLength);
+    }
+
+    public static HashCache load(Path cachePath, String algorithm, int hashLength) {
+        Table previous = new Table(hashLength);
+        if (Files.exists(cachePath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachePath)))) {
+                if (in.readInt() == MAGIC && in.readUTF().equals(algorithm) && in.readInt() == hashLength) {
+                    previous.read(in, Files.size(cachePath));
+                }
+            } catch (IOException | RuntimeException e) {
+                // System.err.println("Couldn't read hash cache " + cachePath + ", starting with empty one");
+                previous = new Table(hashLength);
+            }
+        }
+        return new HashCache(cachePath, algorithm, hashLength, previous);
+    }
+
+    /**
+     * Copies cached hash of {@code file} to {@code hash} if cached attributes still match {@code attrs}.
+     *
+     * @return whether cached hash was found
+     */
+    public boolean lookup(Path file, BasicFileAttributes attrs, byte[] hash) {
+        byte[] path = file.toString().getBytes(StandardCharsets.UTF_8);
+        int entry = previous.find(path);
+        if (entry < 0 || !previous.matches(entry, attrs)) {
+            return false;
+        }
+        previous.hash(entry, hash);
+        synchronized (current) {
+            current.add(path, attrs, hash);
+        }
+        return true;
+    }
+
+    public void store(Path file, BasicFileAttributes attrs, byte[] hash) {
+        byte[] path = file.toString().getBytes(StandardCharsets.UTF_8);
+        synchronized (current) {
+            current.add(path, attrs, hash);
+        }
+    }
+
+    /**
+     * Replaces cache file with entries seen during the walk. New file is written next to it and forced to disk,
+     * before it's moved over the old one, so a crash leaves either of them whole.
+     */
+    public void save() throws IOException {
+        // Created like the cache file itself would be, unlike temp files, which are readable by owner only
+        Path tmp = cachePath.resolveSibling(cachePath.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(MAGIC);
+                out.writeUTF(algorithm);
+                out.writeInt(hashLength);
+                synchronized (current) {
+                    current.write(out);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long modified(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the whole file key, such as device and inode, as hash of the key may be the same for another file.
+     */
+    private static byte[] fileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? NO_FILE_KEY : key.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long hashOf(byte[] bytes, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; ++i) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static class Table {
+        private final int hashLength;
+        // Paths are stored in order of addition, which is the walk order, so neighbours share long prefixes
+        private final PathStore paths = new PathStore();
+        private byte[] hashes;
+        private long[] sizes = new long[1 << 10];
+        private long[] modified = new long[1 << 10];
+        // File keys of entries are kept in one arena, a changed key is appended
+        private byte[] fileKeys = new byte[1 << 14];
+        private int fileKeysSize;
+        private int[] fileKeyStarts = new int[1 << 10];
+        private int[] fileKeyLengths = new int[1 << 10];
+        private long[] keyHashes = new long[1 << 10];
+        // Open addressing, stores entry index + 1
+        private int[] slots = new int[1 << 11];
+
+        Table(int hashLength) {
+            this.hashLength = hashLength;
+            this.hashes = new byte[hashLength << 10];
+        }
+
+        int find(byte[] path) {
+            return find(path, path.length);
+        }
+
+        private int find(byte[] path, int length) {
+            long keyHash = hashOf(path, 0, length);
+            int mask = slots.length - 1;
+            for (int slot = (int) keyHash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int entry = slots[slot] - 1;
+                if (keyHashes[entry] == keyHash && paths.equals(entry, path, length)) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        boolean matches(int entry, BasicFileAttributes attrs) {
+            if (sizes[entry] != attrs.size() || modified[entry] != modified(attrs)) {
+                return false;
+            }
+            byte[] key = fileKey(attrs);
+            int start = fileKeyStarts[entry];
+            return Arrays.equals(fileKeys, start, start + fileKeyLengths[entry], key, 0, key.length);
+        }
+
+        void hash(int entry, byte[] hash) {
+            System.arraycopy(hashes, entry * hashLength, hash, 0, hashLength);
+        }
+
+        void add(byte[] path, BasicFileAttributes attrs, byte[] hash) {
+            int entry = find(path);
+            if (entry < 0) {
+                entry = append(path, path.length);
+            }
+            sizes[entry] = attrs.size();
+            modified[entry] = modified(attrs);
+            byte[] key = fileKey(attrs);
+            setFileKey(entry, key, 0, key.length);
+            System.arraycopy(hash, 0, hashes, entry * hashLength, hashLength);
+        }
+
+        private void setFileKey(int entry, byte[] key, int offset, int length) {
+            int start = fileKeyStarts[entry];
+            if (length != fileKeyLengths[entry]) {
+                if (fileKeysSize + length > fileKeys.length) {
+                    fileKeys = Arrays.copyOf(fileKeys, Math.max(fileKeysSize + length, fileKeys.length * 2));
+                }
+                start = fileKeysSize;
+                fileKeysSize += length;
+            }
+            System.arraycopy(key, offset, fileKeys, start, length);
+            fileKeyStarts[entry] = start;
+            fileKeyLengths[entry] = length;
+        }
+
+        private int append(byte[] path, int length) {
+            int entry = paths.add(path, length);
+            if (entry == sizes.length) {
+                int capacity = entry * 2;
+                hashes = Arrays.copyOf(hashes, capacity * hashLength);
+                sizes = Arrays.copyOf(sizes, capacity);
+                modified = Arrays.copyOf(modified, capacity);
+                fileKeyStarts = Arrays.copyOf(fileKeyStarts, capacity);
+                fileKeyLengths = Arrays.copyOf(fileKeyLengths, capacity);
+                keyHashes = Arrays.copyOf(keyHashes, capacity);
+            }
+            keyHashes[entry] = hashOf(path, 0, length);
+            link(entry);
+            return entry;
+        }
+
+        private void link(int entry) {
+            int size = paths.size();
+            if ((size + 1) * 2 > slots.length) {
+                slots = new int[slots.length * 2];
+                for (int i = 0; i < size; ++i) {
+                    insertSlot(i);
+                }
+            } else {
+                insertSlot(entry);
+            }
+        }
+
+        private void insertSlot(int entry) {
+            int mask = slots.length - 1;
+            int slot = (int) keyHashes[entry] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+
+        /**
+         * Reads entries written by {@link #write}, checking counts against {@code fileSize},
+         * so a corrupt file fails with {@link IOException} instead of huge allocations.
+         */
+        void read(DataInputStream in, long fileSize) throws IOException {
+            int count = in.readInt();
+            // Every entry takes at least its path length, hash, size, modification time and file key length
+            if (count < 0 || count > fileSize / (2 * Integer.BYTES + hashLength + 2 * Long.BYTES)) {
+                throw new IOException("Invalid number of cache entries: " + count);
+            }
+            byte[] path = new byte[1 << 8];
+            for (int i = 0; i < count; ++i) {
+                int pathLength = in.readInt();
+                if (pathLength < 0 || pathLength > fileSize) {
+                    throw new IOException("Invalid cached path length: " + pathLength);
+                }
+                if (pathLength > path.length) {
+                    path = new byte[Math.max(pathLength, path.length * 2)];
+                }
+                in.readFully(path, 0, pathLength);
+                int entry = append(path, pathLength);
+                in.readFully(hashes, entry * hashLength, hashLength);
+                sizes[entry] = in.readLong();
+                modified[entry] = in.readLong();
+                int keyLength = in.readInt();
+                if (keyLength < 0 || keyLength > fileSize) {
+                    throw new IOException("Invalid cached file key length: " + keyLength);
+                }
+                if (keyLength > path.length) {
+                    path = new byte[Math.max(keyLength, path.length * 2)];
+                }
+                in.readFully(path, 0, keyLength);
+                setFileKey(entry, path, 0, keyLength);
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(paths.size());
+            PathStore.Cursor cursor = paths.cursor(0);
+            while (cursor.next()) {
+                int entry = cursor.index();
+                out.writeInt(cursor.length());
+                out.write(cursor.path(), 0, cursor.length());
+                out.write(hashes, entry * hashLength, hashLength);
+                out.writeLong(sizes[entry]);
+                out.writeLong(modified[entry]);
+                out.writeInt(fileKeyLengths[entry]);
+                out.write(fileKeys, fileKeyStarts[entry], fileKeyLengths[entry]);
+            }
+        }
+    }
+}
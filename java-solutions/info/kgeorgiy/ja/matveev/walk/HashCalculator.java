@@ -1,10 +1,62 @@
 package info.kgeorgiy.ja.matveev.walk;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
 abstract public class HashCalculator {
-    String zeroHash;
+    final int hashLength;
+    ChannelReader reader = new ChannelReader(ChannelReader.DEFAULT_MAP_THRESHOLD);
+    // Where hashing time and read errors are counted, if set
+    WalkMetrics.Hashing metrics;
 
-    abstract String calculateHash(Path path) throws IOException;
+    /**
+     * @param hashLength Length of raw digest in bytes
+     */
+    protected HashCalculator(int hashLength) {
+        this.hashLength = hashLength;
+    }
+
+    void calculateHash(Path path, byte[] hash) throws IOException {
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            reset();
+            reader.read(path, this::update);
+            digest(hash, 0);
+        } catch (IOException e) {
+            if (metrics != null) {
+                metrics.errors.increment();
+            }
+            throw e;
+        } finally {
+            if (metrics != null) {
+                metrics.nanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    protected abstract void reset();
+
+    /**
+     * Consumes bytes between position and limit of {@code buffer}.
+     * Position of {@code buffer} may be changed.
+     */
+    protected abstract void update(ByteBuffer buffer);
+
+    /**
+     * Writes {@link #hashLength} bytes of digest to {@code hash} starting from {@code offset}.
+     */
+    protected abstract void digest(byte[] hash, int offset);
+
+    protected static void putInt(byte[] hash, int offset, int value) {
+        for (int i = 3; i >= 0; --i, value >>>= 8) {
+            hash[offset + i] = (byte) value;
+        }
+    }
+
+    protected static void putLong(byte[] hash, int offset, long value) {
+        for (int i = 7; i >= 0; --i, value >>>= 8) {
+            hash[offset + i] = (byte) value;
+        }
+    }
 }
@@ -0,0 +1,13 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Service, that makes {@link HashCalculator} available to walk under {@link #name()}.
+ * Implementations are discovered with {@link java.util.ServiceLoader}.
+ */
+public interface HashCalculatorProvider {
+    String name();
+
+    HashCalculator create() throws NoSuchAlgorithmException;
+}
@@ -0,0 +1,76 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Supplier;
+
+public class HashCalculators {
+    private static final Map<String, HashCalculatorProvider> PROVIDERS = new LinkedHashMap<>();
+
+    static {
+        register(new Builtin("jenkins", JenkinsHash::new));
+        register(new Builtin("sha-1", Sha1Hash::new));
+        register(new Builtin("sha-256", () -> new MessageDigestHash("SHA-256")));
+        register(new Builtin("sha-256-tree", Sha256TreeHash::new));
+        register(new Builtin("crc32c", Crc32cHash::new));
+        register(new Builtin("xxhash64", XxHash64::new));
+        for (HashCalculatorProvider provider : ServiceLoader.load(HashCalculatorProvider.class)) {
+            register(provider);
+        }
+    }
+
+    private HashCalculators() {
+    }
+
+    private static void register(HashCalculatorProvider provider) {
+        PROVIDERS.putIfAbsent(provider.name(), provider);
+    }
+
+    public static Set<String> names() {
+        return Collections.unmodifiableSet(PROVIDERS.keySet());
+    }
+
+    /**
+     * Creates calculator for {@code algorithm}, which is either registered name or several names joined by {@code '+'}.
+     * In the latter case all hashes are calculated in one read pass and their digests are concatenated.
+     *
+     * @return created calculator or {@code null} if some of the names are unknown
+     */
+    public static HashCalculator create(String algorithm, long mapThreshold) throws NoSuchAlgorithmException {
+        List<HashCalculator> parts = new ArrayList<>();
+        for (String name : algorithm.split("\\+")) {
+            HashCalculatorProvider provider = PROVIDERS.get(name);
+            if (provider == null) {
+                return null;
+            }
+            parts.add(provider.create());
+        }
+        HashCalculator hashCalculator = parts.size() == 1 ? parts.getFirst() : new CompositeHash(parts);
+        hashCalculator.reader = new ChannelReader(mapThreshold);
+        return hashCalculator;
+    }
+
+    /**
+     * Returns factory of calculators for {@code algorithm}, which must have been successfully created before.
+     */
+    public static Supplier<HashCalculator> factory(String algorithm, long mapThreshold) {
+        return () -> {
+            try {
+                return create(algorithm, mapThreshold);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Algorithm " + algorithm + " has already been created once", e);
+            }
+        };
+    }
+
+    private interface Factory {
+        HashCalculator create() throws NoSuchAlgorithmException;
+    }
+
+    private record Builtin(String name, Factory factory) implements HashCalculatorProvider {
+        @Override
+        public HashCalculator create() throws NoSuchAlgorithmException {
+            return factory.create();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Receives walk results in output order.
+ */
+public interface HashConsumer {
+    /**
+     * @param attrs Attributes of the file, or {@code null} if file couldn't be visited
+     */
+    void accept(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException;
+}
@@ -0,0 +1,220 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path to hash index of {@link WalkDaemon}, ordered by {@link PathOrder}.
+ * Most entries are kept in a base, where paths are in a {@link PathStore}, while hashes and attributes are
+ * in primitive arrays. Entries put since the base was built are kept in a map, and removed subtrees in a set,
+ * until there are enough of them to build a new base, so only those entries are kept as {@code String}s.
+ * Entries are put by a single thread, while every other method is synchronized.
+ */
+public class HashIndex {
+    private static final int MIN_CHANGES = 1 << 16;
+
+    private final int hashLength;
+    private volatile Base base;
+    private final NavigableMap<String, Entry> added = new ConcurrentSkipListMap<>(PathOrder.COMPARATOR);
+    // Subtrees removed from base, none of them is under another one
+    private final TreeSet<String> removed = new TreeSet<>(PathOrder.COMPARATOR);
+
+    /**
+     * @param size     Size of the file, if {@code modified} isn't negative
+     * @param modified Modification time of the file in nanoseconds, or negative if file couldn't be visited
+     */
+    private record Entry(byte[] hash, long size, long modified) {
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * Receives entry, whose path is the first {@code length} bytes of {@code path} in UTF-8.
+         * Arrays are reused for the next entry.
+         *
+         * @param modified Modification time in nanoseconds, or negative if file couldn't be visited
+         */
+        void accept(byte[] path, int length, byte[] hash, long size, long modified) throws IOException;
+    }
+
+    private class Base {
+        final PathStore paths = new PathStore();
+        byte[] hashes = new byte[hashLength << 10];
+        long[] sizes = new long[1 << 10];
+        long[] modified = new long[1 << 10];
+
+        void add(byte[] path, int length, byte[] hash, long size, long modified) {
+            int entry = paths.add(path, length);
+            if (entry == sizes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                this.modified = Arrays.copyOf(this.modified, this.modified.length * 2);
+            }
+            System.arraycopy(hash, 0, hashes, entry * hashLength, hashLength);
+            sizes[entry] = size;
+            this.modified[entry] = modified;
+        }
+    }
+
+    public HashIndex(int hashLength) {
+        this.hashLength = hashLength;
+        this.base = new Base();
+    }
+
+    public void put(String filename, byte[] hash, BasicFileAttributes attrs) {
+        added.put(filename, attrs == null
+                ? new Entry(hash.clone(), 0, -1)
+                : new Entry(hash.clone(), attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)));
+        if (added.size() >= Math.max(MIN_CHANGES, base.paths.size() / 4)) {
+            merge();
+        }
+    }
+
+    /**
+     * Removes {@code path} and every path under it.
+     */
+    public synchronized void removeSubtree(String path) {
+        String prefix = path + File.separator;
+        added.remove(path);
+        for (Iterator<String> it = added.tailMap(prefix).keySet().iterator(); it.hasNext() && it.next().startsWith(prefix); ) {
+            it.remove();
+        }
+        if (base.paths.size() == 0) {
+            return;
+        }
+
+        // Subtrees are disjoint, so only the greatest one, that isn't greater than path, may contain it
+        String floor = removed.floor(path);
+        if (floor != null && (floor.equals(path) || path.startsWith(floor + File.separator))) {
+            return;
+        }
+        for (Iterator<String> it = removed.tailSet(prefix).iterator(); it.hasNext() && it.next().startsWith(prefix); ) {
+            it.remove();
+        }
+        removed.add(path);
+    }
+
+    public synchronized void clear() {
+        base = new Base();
+        added.clear();
+        removed.clear();
+    }
+
+    public synchronized int size() {
+        if (added.isEmpty() && removed.isEmpty()) {
+            return base.paths.size();
+        }
+        int[] size = {0};
+        try {
+            forEach(null, (path, length, hash, fileSize, modified) -> ++size[0]);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return size[0];
+    }
+
+    /**
+     * Passes {@code root} and entries under it in order, or every entry, if {@code root} is {@code null}.
+     */
+    public synchronized void forEach(String root, EntryConsumer consumer) throws IOException {
+        Merge merge = new Merge(root);
+        byte[] hash = new byte[hashLength];
+        while (merge.hasBase || merge.change != null) {
+            int compare = !merge.hasBase ? 1 : merge.change == null ? -1
+                    : PathOrder.compare(merge.cursor.path(), merge.cursor.length(), merge.changePath, merge.changePath.length);
+            if (compare < 0) {
+                int entry = merge.cursor.index();
+                System.arraycopy(base.hashes, entry * hashLength, hash, 0, hashLength);
+                consumer.accept(merge.cursor.path(), merge.cursor.length(), hash, base.sizes[entry], base.modified[entry]);
+                merge.advanceBase();
+            } else {
+                Entry entry = merge.change.getValue();
+                consumer.accept(merge.changePath, merge.changePath.length, entry.hash, entry.size, entry.modified);
+                if (compare == 0) {
+                    merge.advanceBase();
+                }
+                merge.advanceChange();
+            }
+        }
+    }
+
+    private synchronized void merge() {
+        Base merged = new Base();
+        try {
+            forEach(null, merged::add);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        base = merged;
+        added.clear();
+        removed.clear();
+    }
+
+    /**
+     * Walks base and put entries side by side, skipping base entries of removed subtrees.
+     */
+    private class Merge {
+        final byte[] root;
+        final PathStore.Cursor cursor;
+        final Iterator<Map.Entry<String, Entry>> changes;
+        final List<byte[]> removals;
+        int removal;
+        boolean hasBase;
+        Map.Entry<String, Entry> change;
+        byte[] changePath;
+
+        Merge(String root) {
+            this.root = root == null ? null : root.getBytes(StandardCharsets.UTF_8);
+            this.cursor = base.paths.cursor(root == null ? 0 : base.paths.lowerBound(this.root, this.root.length));
+            this.changes = (root == null ? added : added.tailMap(root)).entrySet().iterator();
+            this.removals = removed.stream().map(path -> path.getBytes(StandardCharsets.UTF_8)).toList();
+            advanceBase();
+            advanceChange();
+        }
+
+        void advanceBase() {
+            while (cursor.next() && contains(cursor.path(), cursor.length())) {
+                if (!isRemoved(cursor.path(), cursor.length())) {
+                    hasBase = true;
+                    return;
+                }
+            }
+            hasBase = false;
+        }
+
+        void advanceChange() {
+            if (changes.hasNext()) {
+                change = changes.next();
+                changePath = change.getKey().getBytes(StandardCharsets.UTF_8);
+                if (contains(changePath, changePath.length)) {
+                    return;
+                }
+            }
+            change = null;
+        }
+
+        private boolean contains(byte[] path, int length) {
+            return root == null || PathOrder.isUnder(path, length, root, root.length);
+        }
+
+        private boolean isRemoved(byte[] path, int length) {
+            // Removed subtrees are disjoint and come in order, so those before path, that don't contain it, are passed
+            while (removal < removals.size()
+                    && PathOrder.compare(removals.get(removal), removals.get(removal).length, path, length) <= 0
+                    && !PathOrder.isUnder(path, length, removals.get(removal), removals.get(removal).length)) {
+                ++removal;
+            }
+            return removal < removals.size() && PathOrder.isUnder(path, length, removals.get(removal), removals.get(removal).length);
+        }
+    }
+}
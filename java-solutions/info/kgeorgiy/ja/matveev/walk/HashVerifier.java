@@ -0,0 +1,95 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks records of a walk output against files, without walking again: every record is hashed
+ * by a {@link WalkExecutor}, whose results come in the order of records, and compared with the recorded hash.
+ * Records, whose hash differs, are written to report as changed with the actual hash,
+ * or as removed with the recorded hash, if file couldn't be visited.
+ * Paths, that a walk would report with zero hash, like directories, are expected to have zero hash.
+ */
+public class HashVerifier implements HashConsumer {
+    private final HashWriter report;
+    // Recorded hashes of records submitted to executor, but not yet compared
+    private final Queue<byte[]> expected = new ConcurrentLinkedQueue<>();
+    final LongAdder mismatched = new LongAdder();
+    final LongAdder missing = new LongAdder();
+
+    public HashVerifier(HashWriter report) {
+        this.report = report;
+    }
+
+    /**
+     * Submits records of {@code records} to {@code walkExecutor}, until they end or {@code maxFailures} are reported.
+     * Records, that are already submitted, when the limit is reached, are still compared, so a few more may be reported.
+     *
+     * @param maxRate Bytes per second to submit, or {@code 0} for no limit
+     */
+    public void verify(BaselineReader records, WalkExecutor walkExecutor, long maxFailures, long maxRate) throws IOException {
+        long start = System.nanoTime();
+        long submitted = 0;
+        while (records.peek() != null && failures() < maxFailures) {
+            BaselineReader.Record record = records.next();
+            expected.add(record.hash());
+
+            Path path;
+            BasicFileAttributes attrs;
+            try {
+                path = Paths.get(record.path());
+                attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (InvalidPathException | IOException | SecurityException e) {
+                walkExecutor.zero(record.path());
+                continue;
+            }
+            if (attrs.isDirectory()) {
+                walkExecutor.zero(record.path());
+                continue;
+            }
+
+            if (maxRate > 0) {
+                submitted += attrs.size();
+                long ahead = (long) (submitted * 1e9 / maxRate) - (System.nanoTime() - start);
+                if (ahead > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            walkExecutor.hash(path, attrs);
+        }
+    }
+
+    long failures() {
+        return mismatched.sum() + missing.sum();
+    }
+
+    @Override
+    public void accept(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        byte[] recorded = expected.remove();
+        if (Arrays.equals(recorded, hash)) {
+            return;
+        }
+        if (attrs == null) {
+            missing.increment();
+            report.writeHash(HashWriter.Change.REMOVED, filename, recorded, null);
+        } else {
+            mismatched.increment();
+            report.writeHash(HashWriter.Change.CHANGED, filename, hash, attrs);
+        }
+    }
+}
@@ -1,24 +1,248 @@
 package info.kgeorgiy.ja.matveev.walk;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class HashWriter implements AutoCloseable {
+/**
+ * Writes {@code "<hex hash> <filename>"} lines, or JSON records, to an {@link OutputSink}.
+ * Hex digits and encoded filename are put into one reused buffer, so writing a text line allocates nothing.
+ * Buffer is flushed to the sink once it holds {@code flushBytes} bytes, checked after each complete record,
+ * and every {@code flushMillis} by a timer, so output appears even while a single large file is being hashed.
+ * Because of the timer, writing and flushing are synchronized.
+ */
+public final class HashWriter implements HashConsumer, AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
 
-    private final BufferedWriter bufferedWriter;
+    private final OutputSink sink;
+    private final boolean json;
+    private final int flushBytes;
+    // Flushes buffered records periodically, if flush interval is set
+    private final ScheduledExecutorService timer;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder escaped = new StringBuilder();
+    private boolean closed;
+    // Failure of a timed flush, thrown to the next write
+    private IOException flushError;
 
     public HashWriter(Path outputPath) throws IOException {
-        bufferedWriter = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8);
+        this(outputPath, new WalkOptions());
     }
 
-    public void close() throws IOException {
-        bufferedWriter.close();
+    public HashWriter(Path outputPath, WalkOptions options) throws IOException {
+        this.sink = OutputSink.open(outputPath, options.compression);
+        this.json = options.format.equals("json");
+        this.flushBytes = (int) Math.min(options.flushBytes, BUFFER_SIZE);
+        if (options.flushMillis == 0) {
+            this.timer = null;
+        } else {
+            this.timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().factory());
+            timer.scheduleAtFixedRate(this::timedFlush, options.flushMillis, options.flushMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
-    public void writeHash(String filename, String hash) throws IOException {
-        bufferedWriter.write(String.format("%s %s%n", hash, filename));
+    private synchronized void timedFlush() {
+        if (!closed && flushError == null && buffer.position() > 0) {
+            try {
+                flush();
+            } catch (IOException e) {
+                flushError = e;
+            }
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+            try {
+                checkFlushError();
+                drain();
+            } finally {
+                sink.close();
+            }
+        }
+    }
+
+    private void checkFlushError() throws IOException {
+        if (flushError != null) {
+            throw flushError;
+        }
+    }
+
+    public void writeHash(String filename, byte[] hash) throws IOException {
+        writeHash(null, filename, hash, null);
+    }
+
+    @Override
+    public void accept(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        writeHash(null, filename, hash, attrs);
+    }
+
+    /**
+     * @param change Kind of change for diff output, or {@code null} for plain output
+     * @param attrs  Attributes of the file, or {@code null} if file couldn't be visited
+     */
+    public synchronized void writeHash(Change change, String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        writeHead(change, hash);
+        if (json) {
+            escaped.setLength(0);
+            for (int i = 0; i < filename.length(); ++i) {
+                char c = filename.charAt(i);
+                if (c == '"' || c == '\\') {
+                    escaped.append('\\').append(c);
+                } else if (c < 0x20) {
+                    escaped.append(String.format("\\u%04x", (int) c));
+                } else {
+                    escaped.append(c);
+                }
+            }
+            writeUtf8(escaped);
+        } else {
+            writeUtf8(filename);
+        }
+        writeTail(attrs == null ? 0 : attrs.size(), attrs == null ? null : attrs.lastModifiedTime());
+    }
+
+    /**
+     * Same as {@link #writeHash(Change, String, byte[], BasicFileAttributes)} for filename in UTF-8,
+     * which is copied without decoding, so that stored paths are written without {@code String}s.
+     *
+     * @param modified Modification time of the file, or {@code null} if file couldn't be visited
+     */
+    public synchronized void writeHash(Change change, byte[] filename, int length, byte[] hash, long size, FileTime modified) throws IOException {
+        writeHead(change, hash);
+        if (json) {
+            // Bytes of multibyte characters are never ASCII, so escaping bytes is the same as escaping characters
+            for (int i = 0; i < length; ++i) {
+                byte b = filename[i];
+                if (b == '"' || b == '\\') {
+                    ensureRemaining(2);
+                    buffer.put((byte) '\\').put(b);
+                } else if (0 <= b && b < 0x20) {
+                    writeAscii(String.format("\\u%04x", b));
+                } else {
+                    ensureRemaining(1);
+                    buffer.put(b);
+                }
+            }
+        } else {
+            for (int i = 0; i < length; ) {
+                ensureRemaining(1);
+                int count = Math.min(buffer.remaining(), length - i);
+                buffer.put(filename, i, count);
+                i += count;
+            }
+        }
+        writeTail(size, modified);
+    }
+
+    private void writeHead(Change change, byte[] hash) throws IOException {
+        checkFlushError();
+        if (json) {
+            writeAscii("{");
+            if (change != null) {
+                writeAscii("\"change\":\"" + change.name + "\",");
+            }
+            writeAscii("\"hash\":\"");
+            writeHex(hash);
+            writeAscii("\",\"path\":\"");
+        } else {
+            if (change != null) {
+                writeAscii(change.marker);
+            }
+            writeHex(hash);
+            writeAscii(" ");
+        }
+    }
+
+    private void writeTail(long size, FileTime modified) throws IOException {
+        if (json) {
+            writeAscii("\"");
+            if (modified != null) {
+                writeAscii(",\"size\":" + size + ",\"mtime\":\"" + modified + "\"");
+            }
+            writeAscii("}");
+        }
+        ensureRemaining(LINE_SEPARATOR.length);
+        buffer.put(LINE_SEPARATOR);
+
+        if (buffer.position() >= flushBytes) {
+            flush();
+        }
+    }
+
+    private void writeHex(byte[] hash) throws IOException {
+        ensureRemaining(hash.length * 2);
+        for (byte b : hash) {
+            buffer.put(HEX_DIGITS[(b >> 4) & 0xf]);
+            buffer.put(HEX_DIGITS[b & 0xf]);
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        ensureRemaining(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void writeUtf8(CharSequence s) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(s);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(chars, buffer, true)).isOverflow()) {
+            drain();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+    }
+
+    private void ensureRemaining(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        sink.write(buffer.flip());
+        buffer.clear();
+    }
+
+    public synchronized void flush() throws IOException {
+        drain();
+        sink.flush();
+    }
+
+    public enum Change {
+        ADDED("+ ", "added"),
+        REMOVED("- ", "removed"),
+        CHANGED("~ ", "changed");
+
+        private final String marker;
+        private final String name;
+
+        Change(String marker, String name) {
+            this.marker = marker;
+            this.name = name;
+        }
     }
 }
@@ -0,0 +1,113 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads input lines ahead of the walk, and for every one of the next {@code depth} lines
+ * reads attributes and the first bytes of the file concurrently, so that the walk finds them
+ * in the page cache instead of waiting for seeks one by one.
+ * Prefetching is only a hint: results aren't used, and errors are ignored, as the walk repeats the same calls.
+ * First bytes are read rather than mapped, since mappings can't be released explicitly and would pile up until GC.
+ */
+public class InputPrefetcher implements AutoCloseable {
+    // Bytes read from the beginning of every file, kernel read-ahead usually brings more
+    private static final int READ_AHEAD = 64 << 10;
+    private static final int MAX_THREADS = 16;
+
+    private final int depth;
+    private final ExecutorService executor;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_AHEAD));
+
+    public InputPrefetcher(int depth) {
+        this.depth = depth;
+        this.executor = Executors.newFixedThreadPool(Math.min(depth, MAX_THREADS), Thread.ofPlatform().daemon().factory());
+    }
+
+    /**
+     * Returns lines of {@code filenames}, that are prefetched while previous ones are walked.
+     */
+    public Iterable<String> prefetch(Iterable<String> filenames) {
+        return () -> new Lookahead(filenames.iterator());
+    }
+
+    private void prefetch(String filename) {
+        try {
+            Path path = Paths.get(filename);
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile() || attrs.size() == 0) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = buffers.get().clear();
+                channel.read(buffer, 0);
+            }
+        } catch (IOException | InvalidPathException | SecurityException ignored) {
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private class Lookahead implements Iterator<String> {
+        private final Iterator<String> lines;
+        private final Queue<String> window = new ArrayDeque<>();
+        private final Queue<Future<?>> prefetches = new ArrayDeque<>();
+        // Thrown once lines read before it are walked
+        private UncheckedIOException exception;
+
+        Lookahead(Iterator<String> lines) {
+            this.lines = lines;
+            fill();
+        }
+
+        private void fill() {
+            try {
+                while (exception == null && window.size() < depth && lines.hasNext()) {
+                    String filename = lines.next();
+                    window.add(filename);
+                    prefetches.add(executor.submit(() -> prefetch(filename)));
+                }
+            } catch (UncheckedIOException e) {
+                exception = e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (window.isEmpty() && exception != null) {
+                throw exception;
+            }
+            return !window.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            // Prefetch, that hasn't started by now, is late, and would only compete with the walk
+            prefetches.remove().cancel(false);
+            String filename = window.remove();
+            fill();
+            return filename;
+        }
+    }
+}
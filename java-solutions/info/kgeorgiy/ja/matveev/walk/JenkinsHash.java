@@ -1,35 +1,153 @@
 package info.kgeorgiy.ja.matveev.walk;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 
-public class JenkinsHash extends HashCalculator {
+public class JenkinsHash extends HashCalculator implements BatchHash {
+    // Files hashed together by interleaved loop
+    private static final int LANES = 4;
+    // Files, that don't fit into arena, are hashed one by one
+    private static final int MAX_ARENA = 1 << 22;
 
-    private final static int BUFFER_SIZE = 8192;
-    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int hash;
+    // Content of all files of a batch
+    private byte[] arena = new byte[1 << 16];
+    private int arenaSize;
 
     public JenkinsHash() {
-        this.zeroHash = "0".repeat(8);
-    }
-
-    public String calculateHash(Path path) throws IOException {
-        int hash = 0;
-        if (Files.exists(path)) {
-            BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(path));
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                for (int i = 0; i < bytesRead; ++i) {
-                    hash += buffer[i] & 0xff;
-                    hash += hash << 10;
-                    hash ^= hash >>> 6;
+        super(4);
+    }
+
+    @Override
+    protected void reset() {
+        hash = 0;
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        int h = hash;
+        for (int i = buffer.position(), limit = buffer.limit(); i < limit; ++i) {
+            h += buffer.get(i) & 0xff;
+            h += h << 10;
+            h ^= h >>> 6;
+        }
+        hash = h;
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        putInt(hash, offset, finish(this.hash));
+    }
+
+    private static int finish(int h) {
+        h += h << 3;
+        h ^= h >>> 11;
+        h += h << 15;
+        return h;
+    }
+
+    /**
+     * Reads all files into arena, and then hashes them by {@value LANES} at once.
+     * Every step of one-at-a-time hash depends on the previous one, but steps of independent files don't,
+     * so interleaving them lets processor execute several steps at once.
+     * Files are grouped by length, so that lanes of a group have similar lengths.
+     * Files are read by {@link #reader}, so they are mapped as usual, and arena is limited to {@value MAX_ARENA} bytes:
+     * a file, that doesn't fit into what's left of it, is hashed by itself.
+     */
+    @Override
+    public void calculateHashes(Path[] paths, byte[][] hashes) {
+        int count = paths.length;
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        // Length in high bits, index in low ones, so that files are sorted by length without boxing
+        long[] order = new long[count];
+        int inArena = 0;
+        arenaSize = 0;
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = arenaSize;
+            try {
+                long room = MAX_ARENA - arenaSize;
+                if (reader.read(paths[i], 0, room + 1, this::append) > room) {
+                    arenaSize = offsets[i];
+                    hashes[i] = new byte[hashLength];
+                    reset();
+                    reader.read(paths[i], this::update);
+                    digest(hashes[i], 0);
+                    continue;
                 }
+                lengths[i] = arenaSize - offsets[i];
+                hashes[i] = new byte[hashLength];
+                order[inArena++] = (long) lengths[i] << 32 | i;
+            } catch (IOException e) {
+                // System.err.printf("Couldn't calculate hash for file %s, so assuming that hash is zero", paths[i]);
+                arenaSize = offsets[i];
+                hashes[i] = null;
+            }
+        }
+        Arrays.sort(order, 0, inArena);
+        count = inArena;
+
+        int group = 0;
+        for (; group + LANES <= count; group += LANES) {
+            int i0 = (int) order[group];
+            int i1 = (int) order[group + 1];
+            int i2 = (int) order[group + 2];
+            int i3 = (int) order[group + 3];
+            int o0 = offsets[i0];
+            int o1 = offsets[i1];
+            int o2 = offsets[i2];
+            int o3 = offsets[i3];
+            int h0 = 0, h1 = 0, h2 = 0, h3 = 0;
+            int common = lengths[i0];
+            for (int j = 0; j < common; ++j) {
+                h0 += arena[o0 + j] & 0xff;
+                h1 += arena[o1 + j] & 0xff;
+                h2 += arena[o2 + j] & 0xff;
+                h3 += arena[o3 + j] & 0xff;
+                h0 += h0 << 10;
+                h1 += h1 << 10;
+                h2 += h2 << 10;
+                h3 += h3 << 10;
+                h0 ^= h0 >>> 6;
+                h1 ^= h1 >>> 6;
+                h2 ^= h2 >>> 6;
+                h3 ^= h3 >>> 6;
             }
-            hash += hash << 3;
-            hash ^= hash >>> 11;
-            hash += hash << 15;
+            put(hashes[i0], hash(h0, o0 + common, lengths[i0] - common));
+            put(hashes[i1], hash(h1, o1 + common, lengths[i1] - common));
+            put(hashes[i2], hash(h2, o2 + common, lengths[i2] - common));
+            put(hashes[i3], hash(h3, o3 + common, lengths[i3] - common));
+        }
+        for (; group < count; ++group) {
+            int i = (int) order[group];
+            put(hashes[i], hash(0, offsets[i], lengths[i]));
+        }
+    }
+
+    private int hash(int h, int offset, int length) {
+        for (int i = offset, limit = offset + length; i < limit; ++i) {
+            h += arena[i] & 0xff;
+            h += h << 10;
+            h ^= h >>> 6;
+        }
+        return finish(h);
+    }
+
+    private static void put(byte[] hash, int value) {
+        if (hash != null) {
+            putInt(hash, 0, value);
+        }
+    }
+
+    private void append(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (arenaSize + length > arena.length) {
+            // Reads are limited by room left in arena, so it never grows over the limit
+            arena = Arrays.copyOf(arena, Math.min(Math.max(arenaSize + length, arena.length * 2), MAX_ARENA + 1));
         }
-        return String.format("%08x", hash);
+        buffer.get(arena, arenaSize, length);
+        arenaSize += length;
     }
 }
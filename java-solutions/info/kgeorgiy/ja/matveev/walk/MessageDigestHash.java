@@ -0,0 +1,38 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class MessageDigestHash extends HashCalculator {
+    private final MessageDigest digest;
+
+    public MessageDigestHash(String algorithm) throws NoSuchAlgorithmException {
+        this(MessageDigest.getInstance(algorithm));
+    }
+
+    private MessageDigestHash(MessageDigest digest) {
+        super(digest.getDigestLength());
+        this.digest = digest;
+    }
+
+    @Override
+    protected void reset() {
+        digest.reset();
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        digest.update(buffer);
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        try {
+            digest.digest(hash, offset, hashLength);
+        } catch (DigestException e) {
+            throw new AssertionError("Digest buffer is too small", e);
+        }
+    }
+}
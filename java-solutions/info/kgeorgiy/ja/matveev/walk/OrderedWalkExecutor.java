@@ -0,0 +1,168 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Base for executors, that hash files concurrently, while a writer thread passes results
+ * to {@link HashConsumer} in the order files were submitted.
+ */
+public abstract class OrderedWalkExecutor implements WalkExecutor {
+    static final HashTask STOP = new HashTask(null, null, null);
+
+    final int hashLength;
+    final byte[] zeroHash;
+    final HashCache hashCache;
+    private final HashConsumer hashConsumer;
+    // Every submitted task is put here first, so its capacity bounds number of files in flight
+    private final BlockingQueue<HashTask> orderQueue;
+    private final Thread writer;
+    private volatile IOException writeException;
+
+    protected OrderedWalkExecutor(int hashLength, int capacity, HashConsumer hashConsumer, HashCache hashCache) {
+        this.hashLength = hashLength;
+        this.zeroHash = new byte[hashLength];
+        this.hashConsumer = hashConsumer;
+        this.hashCache = hashCache;
+        this.orderQueue = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(this::write);
+        writer.start();
+    }
+
+    private void write() {
+        try {
+            HashTask task;
+            while ((task = orderQueue.take()) != STOP) {
+                byte[] hash = task.result.join();
+                if (writeException == null) {
+                    try {
+                        hashConsumer.accept(task.filename, hash, task.attrs);
+                    } catch (IOException e) {
+                        writeException = e;
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Starts hashing of {@code task}, that has already been put in output order.
+     * Implementation must eventually complete {@link HashTask#result}.
+     */
+    protected abstract void schedule(HashTask task) throws IOException;
+
+    /**
+     * Starts hashing of tasks, that {@link #schedule} has held back.
+     * Called before every task, that isn't scheduled, and on close, so held back tasks are always the last submitted ones.
+     */
+    protected void flush() {
+    }
+
+    /**
+     * Stops hashing threads. Called after all scheduled tasks are completed.
+     *
+     * @return whether current thread was interrupted meanwhile
+     */
+    protected abstract boolean shutdown();
+
+    @Override
+    public void hash(Path file, BasicFileAttributes attrs) throws IOException {
+        HashTask task = new HashTask(file.toString(), file, attrs);
+        submit(task);
+        try {
+            schedule(task);
+        } catch (IOException | RuntimeException e) {
+            // Writer waits for every submitted task
+            task.result.complete(zeroHash);
+            throw e;
+        }
+    }
+
+    @Override
+    public void zero(String filename) throws IOException {
+        known(filename, zeroHash, null);
+    }
+
+    @Override
+    public void known(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        HashTask task = new HashTask(filename, null, attrs);
+        task.result.complete(hash);
+        flush();
+        submit(task);
+    }
+
+    private void submit(HashTask task) throws IOException {
+        checkWriteException();
+        try {
+            orderQueue.put(task);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while submitting " + task.filename);
+        }
+    }
+
+    @Override
+    public int queueDepth() {
+        return orderQueue.size();
+    }
+
+    private void checkWriteException() throws IOException {
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        boolean interrupted = putUninterruptibly(orderQueue, STOP);
+        interrupted |= joinUninterruptibly(writer);
+        interrupted |= shutdown();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkWriteException();
+    }
+
+    static boolean putUninterruptibly(BlockingQueue<HashTask> queue, HashTask task) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(task);
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    static boolean joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    static class HashTask {
+        final String filename;
+        final Path path;
+        final BasicFileAttributes attrs;
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        HashTask(String filename, Path path, BasicFileAttributes attrs) {
+            this.filename = filename;
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Destination of encoded walk output.
+ */
+public interface OutputSink extends AutoCloseable {
+
+    /**
+     * Writes all remaining bytes of {@code buffer}.
+     */
+    void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Makes everything written so far visible to readers of the output.
+     */
+    void flush() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    static OutputSink open(Path path, String compression) throws IOException {
+        return switch (compression) {
+            case "none" -> new ChannelSink(FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+            case "gzip" -> new GzipSink(Files.newOutputStream(path));
+            default -> throw new IllegalArgumentException("Unknown compression " + compression);
+        };
+    }
+
+    class ChannelSink implements OutputSink {
+        private final FileChannel channel;
+
+        ChannelSink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    class GzipSink implements OutputSink {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final GZIPOutputStream out;
+
+        GzipSink(OutputStream out) throws IOException {
+            // Sync flush completes current deflate block, so flushed output can be decompressed while it is being written
+            this.out = new GZIPOutputStream(out, BUFFER_SIZE, true);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
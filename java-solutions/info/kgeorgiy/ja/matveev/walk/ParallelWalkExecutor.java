@@ -0,0 +1,260 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Hashes files on several worker threads, while results are written in the order files were submitted.
+ * Every worker has its own {@link HashCalculator}.
+ * Consecutive small files are hashed by a single work item, and files larger than split size
+ * are split into pieces hashed by different workers, if calculator is {@link SplittableHash}.
+ * Batch of small files is hashed at once, if calculator is {@link BatchHash}.
+ */
+public class ParallelWalkExecutor extends OrderedWalkExecutor {
+    private static final int TASKS_PER_THREAD = 64;
+    static final long SMALL_FILE = 4 << 10;
+    // Smaller pieces cost more in opening file and scheduling, than they save
+    private static final long MIN_PIECE = 1 << 20;
+    private static final Work STOP_WORK = hashCalculator -> {
+    };
+
+    @FunctionalInterface
+    private interface Work {
+        void run(HashCalculator hashCalculator);
+    }
+
+    private final BlockingQueue<Work> workQueue = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final int batchSize;
+    private final long splitSize;
+    // Splitting is possible, if calculators are splittable
+    private final SplittableHash splittable;
+    // Small files, that haven't been given to workers yet. They are always the last submitted ones
+    private List<HashTask> batch = new ArrayList<>();
+
+    /**
+     * @param batchSize Maximal number of small files hashed by one work item
+     * @param splitSize Minimal size of file, that is split, and size of its pieces (at least 1 MiB);
+     *                  {@code 0} disables splitting
+     */
+    public ParallelWalkExecutor(Supplier<HashCalculator> factory, int threads, int batchSize, long splitSize,
+                                HashConsumer hashConsumer, HashCache hashCache) {
+        this(Stream.generate(factory).limit(threads).toList(), batchSize, splitSize, hashConsumer, hashCache);
+    }
+
+    private ParallelWalkExecutor(List<HashCalculator> hashCalculators, int batchSize, long splitSize,
+                                 HashConsumer hashConsumer, HashCache hashCache) {
+        super(hashCalculators.getFirst().hashLength, hashCalculators.size() * TASKS_PER_THREAD, hashConsumer, hashCache);
+        // Writer waits for the held back batch, so it must fit into order queue
+        this.batchSize = Math.min(batchSize, hashCalculators.size() * TASKS_PER_THREAD);
+        this.splitSize = splitSize;
+        this.splittable = hashCalculators.getFirst() instanceof SplittableHash hash ? hash : null;
+
+        for (HashCalculator hashCalculator : hashCalculators) {
+            Thread worker = new Thread(() -> work(hashCalculator));
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    private void work(HashCalculator hashCalculator) {
+        try {
+            Work work;
+            while ((work = workQueue.take()) != STOP_WORK) {
+                work.run(hashCalculator);
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void hashFile(HashCalculator hashCalculator, HashTask task) {
+        byte[] hash = new byte[hashLength];
+        WalkExecutor.calculate(hashCalculator, hashCache, task.path, task.attrs, hash);
+        task.result.complete(hash);
+    }
+
+    @Override
+    protected void schedule(HashTask task) throws IOException {
+        long size = task.attrs == null ? -1 : task.attrs.size();
+        if (batchSize > 1 && 0 <= size && size < SMALL_FILE) {
+            batch.add(task);
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+            return;
+        }
+
+        flush();
+        if (splittable != null && splitSize > 0 && size > splitSize) {
+            split(task, size);
+        } else {
+            workQueue.add(guarded(List.of(task), hashCalculator -> hashFile(hashCalculator, task)));
+        }
+    }
+
+    @Override
+    protected void flush() {
+        if (!batch.isEmpty()) {
+            List<HashTask> tasks = batch;
+            batch = new ArrayList<>();
+            workQueue.add(guarded(tasks, hashCalculator -> hashBatch(hashCalculator, tasks)));
+        }
+    }
+
+    private void hashBatch(HashCalculator hashCalculator, List<HashTask> tasks) {
+        if (!(hashCalculator instanceof BatchHash batchHash)) {
+            hashEach(hashCalculator, tasks);
+            return;
+        }
+
+        List<HashTask> missed = new ArrayList<>(tasks.size());
+        byte[] hash = new byte[hashLength];
+        for (HashTask task : tasks) {
+            try {
+                if (hashCache != null && hashCache.lookup(task.path, task.attrs, hash)) {
+                    task.result.complete(hash);
+                    hash = new byte[hashLength];
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                fail(hashCalculator, task);
+                continue;
+            }
+            missed.add(task);
+        }
+
+        Path[] paths = missed.stream().map(task -> task.path).toArray(Path[]::new);
+        byte[][] hashes = new byte[paths.length][];
+        WalkMetrics.Hashing metrics = hashCalculator.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        try {
+            batchHash.calculateHashes(paths, hashes);
+        } catch (RuntimeException e) {
+            // Failing file is unknown, so files are hashed one by one, and only it is assumed to have zero hash
+            hashEach(hashCalculator, missed);
+            return;
+        } finally {
+            if (metrics != null) {
+                metrics.nanos.add(System.nanoTime() - start);
+            }
+        }
+        for (int i = 0; i < hashes.length; ++i) {
+            HashTask task = missed.get(i);
+            if (hashes[i] == null) {
+                fail(hashCalculator, task);
+                continue;
+            }
+            try {
+                if (hashCache != null) {
+                    hashCache.store(task.path, task.attrs, hashes[i]);
+                }
+                task.result.complete(hashes[i]);
+            } catch (RuntimeException e) {
+                fail(hashCalculator, task);
+            }
+        }
+    }
+
+    private void hashEach(HashCalculator hashCalculator, List<HashTask> tasks) {
+        for (HashTask task : tasks) {
+            try {
+                hashFile(hashCalculator, task);
+            } catch (RuntimeException e) {
+                fail(hashCalculator, task);
+            }
+        }
+    }
+
+    private void split(HashTask task, long size) {
+        byte[] hash = new byte[hashLength];
+        if (hashCache != null && hashCache.lookup(task.path, task.attrs, hash)) {
+            task.result.complete(hash);
+            return;
+        }
+
+        long alignment = splittable.alignment();
+        long pieceSize = (Math.max(splitSize, MIN_PIECE) + alignment - 1) / alignment * alignment;
+        byte[] state = new byte[splittable.stateLength(size, pieceSize)];
+        long pieces = SplittableHash.pieces(size, pieceSize);
+        // Last piece to complete combines the state, decrement orders state writes before it
+        AtomicInteger remaining = new AtomicInteger(Math.toIntExact(pieces));
+        AtomicBoolean failed = new AtomicBoolean();
+        for (long i = 0; i < pieces; ++i) {
+            long pieceOffset = i * pieceSize;
+            workQueue.add(guarded(List.of(task), hashCalculator -> {
+                SplittableHash piece = (SplittableHash) hashCalculator;
+                WalkMetrics.Hashing metrics = hashCalculator.metrics;
+                long start = metrics == null ? 0 : System.nanoTime();
+                try {
+                    piece.calculatePiece(task.path, size, pieceSize, pieceOffset, state);
+                } catch (IOException | RuntimeException e) {
+                    // System.err.printf("Couldn't calculate hash for file %s, so assuming that hash is zero", task.path);
+                    failed.set(true);
+                }
+                if (metrics != null) {
+                    metrics.nanos.add(System.nanoTime() - start);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    if (failed.get()) {
+                        if (metrics != null) {
+                            metrics.errors.increment();
+                        }
+                        task.result.complete(zeroHash);
+                        return;
+                    }
+                    piece.combine(size, pieceSize, state, hash);
+                    if (hashCache != null) {
+                        hashCache.store(task.path, task.attrs, hash);
+                    }
+                    task.result.complete(hash);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Returns work, that completes {@code tasks} left pending with zero hash, if {@code work} fails unexpectedly,
+     * like on a broken cache, so the worker survives and writer doesn't wait for them forever.
+     */
+    private Work guarded(List<HashTask> tasks, Work work) {
+        return hashCalculator -> {
+            try {
+                work.run(hashCalculator);
+            } catch (RuntimeException e) {
+                // System.err.println("Couldn't hash files, so assuming that their hashes are zero: " + e);
+                for (HashTask task : tasks) {
+                    fail(hashCalculator, task);
+                }
+            }
+        };
+    }
+
+    /**
+     * Completes {@code task} with zero hash and counts an error, unless it has been completed already.
+     */
+    private void fail(HashCalculator hashCalculator, HashTask task) {
+        if (task.result.complete(zeroHash) && hashCalculator.metrics != null) {
+            hashCalculator.metrics.errors.increment();
+        }
+    }
+
+    @Override
+    protected boolean shutdown() {
+        boolean interrupted = false;
+        for (int i = 0; i < workers.size(); ++i) {
+            workQueue.add(STOP_WORK);
+        }
+        for (Thread worker : workers) {
+            interrupted |= joinUninterruptibly(worker);
+        }
+        return interrupted;
+    }
+}
@@ -0,0 +1,202 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@link TreeWalker}, that lists directories and reads attributes of their entries on a {@link ForkJoinPool}.
+ * Up to {@value LOOKAHEAD} next subdirectories of a directory are listed in parallel, while the walk is in the previous ones,
+ * so a wide level isn't held in memory at once, and attributes of entries of a wide directory are read by several tasks.
+ * Listing of a directory, whose subtree visitor skips, is kept for the next walk of that directory,
+ * as a subwalk {@link WalkExecutor#fork forked} by {@link Visitor} does, so it isn't listed twice. Visitor itself is called only from the walking thread
+ * in the same order, as by {@link Files#walkFileTree(Path, FileVisitor)}, or by {@link SortedWalker} if sorted,
+ * so it needn't be thread-safe.
+ */
+public class ParallelWalker implements TreeWalker, AutoCloseable {
+    // Entries, whose attributes are read by a single task
+    private static final int ATTRIBUTES_GRAIN = 256;
+    // Subdirectories of a directory, that are listed ahead of the walk
+    private static final int LOOKAHEAD = 8;
+    private static final Comparator<Path> BY_NAME = Comparator.comparing(path -> path.getFileName().toString());
+
+    private final ForkJoinPool pool;
+    private final boolean sorted;
+    private final Map<Path, ForkJoinTask<Listing>> skipped = new ConcurrentHashMap<>();
+
+    public ParallelWalker(int threads, boolean sorted) {
+        this.pool = new ForkJoinPool(threads);
+        this.sorted = sorted;
+    }
+
+    @Override
+    public void walkFileTree(Path start, FileVisitor<Path> visitor) throws IOException {
+        ForkJoinTask<Listing> listed = skipped.remove(start);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            visitor.visitFileFailed(start, e);
+            return;
+        }
+        if (attrs.isDirectory()) {
+            visitDirectory(start, attrs, listed != null ? listed : pool.submit(new ListTask(start)), visitor);
+        } else {
+            visitor.visitFile(start, attrs);
+        }
+    }
+
+    private FileVisitResult visitDirectory(Path dir, BasicFileAttributes attrs, ForkJoinTask<Listing> task,
+                                           FileVisitor<Path> visitor) throws IOException {
+        Listing listing = task.join();
+        if (listing.exception != null) {
+            return visitor.visitFileFailed(dir, listing.exception);
+        }
+
+        FileVisitResult result = visitor.preVisitDirectory(dir, attrs);
+        if (result != FileVisitResult.CONTINUE) {
+            if (result == FileVisitResult.SKIP_SUBTREE) {
+                skipped.put(dir, task);
+                return FileVisitResult.CONTINUE;
+            }
+            return result;
+        }
+
+        int size = listing.entries.length;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ForkJoinTask<Listing>[] subdirs = new ForkJoinTask[size];
+        // Next entry to list ahead, if it's a directory, and number of listed ones, that the walk hasn't entered yet
+        int next = 0;
+        int pending = 0;
+        try {
+            for (int i = 0; i < size; ++i) {
+                Path entry = listing.entries[i];
+                ForkJoinTask<Listing> subdir = subdirs[i];
+                if (subdir != null) {
+                    subdirs[i] = null;
+                    --pending;
+                }
+                for (next = Math.max(next, i); next < size && pending < LOOKAHEAD; ++next) {
+                    if (next > i && isDirectory(listing, next)) {
+                        subdirs[next] = pool.submit(new ListTask(listing.entries[next]));
+                        ++pending;
+                    }
+                }
+                if (listing.errors[i] != null) {
+                    result = visitor.visitFileFailed(entry, listing.errors[i]);
+                } else if (isDirectory(listing, i)) {
+                    result = visitDirectory(entry, listing.attrs[i], subdir != null ? subdir : pool.submit(new ListTask(entry)), visitor);
+                } else {
+                    result = visitor.visitFile(entry, listing.attrs[i]);
+                }
+                if (result == FileVisitResult.TERMINATE) {
+                    return result;
+                }
+                if (result == FileVisitResult.SKIP_SIBLINGS) {
+                    break;
+                }
+            }
+        } finally {
+            for (ForkJoinTask<Listing> subdir : subdirs) {
+                if (subdir != null) {
+                    subdir.cancel(false);
+                }
+            }
+        }
+        return visitor.postVisitDirectory(dir, null);
+    }
+
+    private static boolean isDirectory(Listing listing, int i) {
+        return listing.errors[i] == null && listing.attrs[i].isDirectory();
+    }
+
+    @Override
+    public void close() {
+        skipped.clear();
+        pool.shutdownNow();
+    }
+
+    private static class Listing {
+        Path[] entries;
+        BasicFileAttributes[] attrs;
+        IOException[] errors;
+        IOException exception;
+    }
+
+    private class ListTask extends RecursiveTask<Listing> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path dir;
+
+        ListTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Listing compute() {
+            Listing listing = new Listing();
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                stream.forEach(entries::add);
+            } catch (IOException e) {
+                listing.exception = e;
+                return listing;
+            } catch (DirectoryIteratorException e) {
+                listing.exception = e.getCause();
+                return listing;
+            }
+
+            listing.entries = entries.toArray(Path[]::new);
+            if (sorted) {
+                Arrays.sort(listing.entries, BY_NAME);
+            }
+            listing.attrs = new BasicFileAttributes[listing.entries.length];
+            listing.errors = new IOException[listing.entries.length];
+            new AttributesTask(listing, 0, listing.entries.length).invoke();
+            return listing;
+        }
+    }
+
+    private static class AttributesTask extends RecursiveAction {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final transient Listing listing;
+        private final int from;
+        private final int to;
+
+        AttributesTask(Listing listing, int from, int to) {
+            this.listing = listing;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ATTRIBUTES_GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new AttributesTask(listing, from, middle), new AttributesTask(listing, middle, to));
+                return;
+            }
+            for (int i = from; i < to; ++i) {
+                try {
+                    listing.attrs[i] = Files.readAttributes(listing.entries[i], BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    listing.errors[i] = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Orders path strings component by component, which is the order of depth-first traversal,
+ * that visits entries of every directory sorted by name.
+ */
+public class PathOrder {
+    public static final Comparator<String> COMPARATOR = PathOrder::compare;
+
+    private PathOrder() {
+    }
+
+    public static int compare(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; ++i) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x != y) {
+                if (x == File.separatorChar) {
+                    return -1;
+                }
+                if (y == File.separatorChar) {
+                    return 1;
+                }
+                return Character.compare(x, y);
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    /**
+     * Compares paths in UTF-8 the same way, as {@link #compare(String, String)} compares them decoded.
+     */
+    public static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; ++i) {
+            if (a[i] != b[i]) {
+                if (a[i] == File.separatorChar) {
+                    return -1;
+                }
+                if (b[i] == File.separatorChar) {
+                    return 1;
+                }
+                return Integer.compare(weight(a[i]), weight(b[i]));
+            }
+        }
+        return Integer.compare(aLength, bLength);
+    }
+
+    /**
+     * Bytes are ordered as unsigned, except that lead bytes of U+E000..U+FFFF go after lead bytes
+     * of supplementary characters, as their UTF-16 surrogates are less.
+     */
+    private static int weight(byte b) {
+        int value = b & 0xff;
+        return value == 0xee || value == 0xef ? value + 0x10 : value;
+    }
+
+    /**
+     * Returns whether {@code path} is {@code ancestor} or is under it, both in UTF-8.
+     */
+    public static boolean isUnder(byte[] path, int pathLength, byte[] ancestor, int ancestorLength) {
+        return pathLength >= ancestorLength
+                && Arrays.equals(path, 0, ancestorLength, ancestor, 0, ancestorLength)
+                && (pathLength == ancestorLength || path[ancestorLength] == File.separatorChar);
+    }
+}
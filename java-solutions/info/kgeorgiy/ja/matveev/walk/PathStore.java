@@ -0,0 +1,253 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store of paths in UTF-8, kept off heap in direct buffers and front coded:
+ * every entry keeps only the suffix, that differs from the previous entry, which is short for paths
+ * added in walk order or in {@link PathOrder}. Every {@value RESTART}th entry is kept whole,
+ * so any entry is decoded starting from the nearest such one.
+ * Adding isn't thread-safe, while entries, that are already added, may be read concurrently.
+ */
+public class PathStore {
+    private static final int RESTART = 16;
+    private static final int CHUNK = 1 << 20;
+    // Two varints of entry header
+    private static final int MAX_HEADER = 10;
+
+    // Every chunk is written up to its position, entries never cross chunks
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    // Position of every RESTART-th entry: chunk in high bits, offset in low ones
+    private long[] restarts = new long[1 << 6];
+    private int size;
+    private byte[] last = new byte[1 << 8];
+    private int lastLength;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns off-heap bytes allocated by the store.
+     */
+    public long capacity() {
+        return chunks.stream().mapToLong(ByteBuffer::capacity).sum();
+    }
+
+    public int add(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        return add(bytes, bytes.length);
+    }
+
+    /**
+     * Adds first {@code length} bytes of {@code path}.
+     *
+     * @return index of the added entry
+     */
+    public int add(byte[] path, int length) {
+        int shared = 0;
+        if (size % RESTART != 0) {
+            int limit = Math.min(lastLength, length);
+            while (shared < limit && last[shared] == path[shared]) {
+                ++shared;
+            }
+        }
+        int suffix = length - shared;
+
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.getLast();
+        if (chunk == null || chunk.remaining() < MAX_HEADER + suffix) {
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK, MAX_HEADER + length));
+            chunks.add(chunk);
+        }
+        if (size % RESTART == 0) {
+            if (size / RESTART == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restarts.length * 2);
+            }
+            restarts[size / RESTART] = (long) (chunks.size() - 1) << 32 | chunk.position();
+        }
+        putVarint(chunk, shared);
+        putVarint(chunk, suffix);
+        chunk.put(path, shared, suffix);
+
+        if (length > last.length) {
+            last = Arrays.copyOf(last, Math.max(length, last.length * 2));
+        }
+        System.arraycopy(path, shared, last, shared, suffix);
+        lastLength = length;
+        return size++;
+    }
+
+    public String get(int index) {
+        Cursor cursor = cursor(index);
+        cursor.next();
+        return new String(cursor.path, 0, cursor.length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns whether entry {@code index} equals to first {@code length} bytes of {@code path}.
+     * Entries preceding it in its restart group are compared without being reconstructed.
+     */
+    public boolean equals(int index, byte[] path, int length) {
+        long restart = restarts[index / RESTART];
+        int chunkIndex = (int) (restart >>> 32);
+        int offset = (int) restart;
+        ByteBuffer chunk = chunks.get(chunkIndex);
+        // Length of the common prefix of the current entry and path
+        int matched = 0;
+        int entryLength = 0;
+        for (int i = index / RESTART * RESTART; i <= index; ++i) {
+            if (offset == chunk.position()) {
+                chunk = chunks.get(++chunkIndex);
+                offset = 0;
+            }
+            int shared = getVarint(chunk, offset);
+            offset += varintLength(shared);
+            int suffix = getVarint(chunk, offset);
+            offset += varintLength(suffix);
+            // Otherwise the first mismatching byte is kept from the previous entry
+            if (shared <= matched) {
+                matched = shared;
+                while (matched < length && matched - shared < suffix && chunk.get(offset + matched - shared) == path[matched]) {
+                    ++matched;
+                }
+            }
+            offset += suffix;
+            entryLength = shared + suffix;
+        }
+        return matched == length && entryLength == length;
+    }
+
+    /**
+     * Returns index of the first entry, that isn't less than first {@code length} bytes of {@code path},
+     * if entries were added in {@link PathOrder}.
+     */
+    public int lowerBound(byte[] path, int length) {
+        // Whole entries at restarts are compared by binary search, then the group is scanned
+        int low = 0;
+        int high = (size + RESTART - 1) / RESTART;
+        Cursor cursor = new Cursor();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            cursor.seek(middle * RESTART);
+            cursor.next();
+            if (PathOrder.compare(cursor.path, cursor.length, path, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return 0;
+        }
+        cursor.seek((low - 1) * RESTART);
+        while (cursor.next()) {
+            if (PathOrder.compare(cursor.path, cursor.length, path, length) >= 0) {
+                return cursor.index;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns cursor, whose {@link Cursor#next()} moves to entry {@code index}.
+     */
+    public Cursor cursor(int index) {
+        Cursor cursor = new Cursor();
+        cursor.seek(index);
+        return cursor;
+    }
+
+    /**
+     * Reads entries one by one, reconstructing every one into the same array.
+     */
+    public class Cursor {
+        private byte[] path = new byte[1 << 8];
+        private int length;
+        private int index = -1;
+        private int next;
+        private int chunkIndex;
+        private int offset;
+
+        private void seek(int index) {
+            next = index / RESTART * RESTART;
+            if (next < size) {
+                long restart = restarts[next / RESTART];
+                chunkIndex = (int) (restart >>> 32);
+                offset = (int) restart;
+            }
+            while (next < index) {
+                next();
+            }
+        }
+
+        /**
+         * Moves to the next entry.
+         *
+         * @return whether there is one
+         */
+        public boolean next() {
+            if (next >= size) {
+                return false;
+            }
+            ByteBuffer chunk = chunks.get(chunkIndex);
+            if (offset == chunk.position()) {
+                chunk = chunks.get(++chunkIndex);
+                offset = 0;
+            }
+            int shared = getVarint(chunk, offset);
+            offset += varintLength(shared);
+            int suffix = getVarint(chunk, offset);
+            offset += varintLength(suffix);
+            length = shared + suffix;
+            if (length > path.length) {
+                path = Arrays.copyOf(path, Math.max(length, path.length * 2));
+            }
+            chunk.get(offset, path, shared, suffix);
+            offset += suffix;
+            index = next++;
+            return true;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * Returns array, whose first {@link #length()} bytes are the current entry. Array is reused by {@link #next()}.
+         */
+        public byte[] path() {
+            return path;
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer, int offset) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(offset++);
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int varintLength(int value) {
+        return (38 - Integer.numberOfLeadingZeros(value | 1)) / 7;
+    }
+}
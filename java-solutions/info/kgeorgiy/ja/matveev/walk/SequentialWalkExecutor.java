@@ -0,0 +1,41 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class SequentialWalkExecutor implements WalkExecutor {
+    private final HashCalculator hashCalculator;
+    private final HashConsumer hashConsumer;
+    private final HashCache hashCache;
+    private final byte[] hash;
+    private final byte[] zeroHash;
+
+    public SequentialWalkExecutor(HashCalculator hashCalculator, HashConsumer hashConsumer, HashCache hashCache) {
+        this.hashCalculator = hashCalculator;
+        this.hashConsumer = hashConsumer;
+        this.hashCache = hashCache;
+        this.hash = new byte[hashCalculator.hashLength];
+        this.zeroHash = new byte[hashCalculator.hashLength];
+    }
+
+    @Override
+    public void hash(Path file, BasicFileAttributes attrs) throws IOException {
+        WalkExecutor.calculate(hashCalculator, hashCache, file, attrs, hash);
+        hashConsumer.accept(file.toString(), hash, attrs);
+    }
+
+    @Override
+    public void zero(String filename) throws IOException {
+        hashConsumer.accept(filename, zeroHash, null);
+    }
+
+    @Override
+    public void known(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        hashConsumer.accept(filename, hash, attrs);
+    }
+
+    @Override
+    public void close() {
+    }
+}
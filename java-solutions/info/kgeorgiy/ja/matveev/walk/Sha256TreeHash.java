@@ -0,0 +1,119 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Tree variant of SHA-256: every 1 MiB leaf is hashed as {@code SHA-256(0x00 || leaf)},
+ * and hash of a file is {@code SHA-256(0x01 || leaf hashes)}.
+ * Unlike plain SHA-256, leaves are independent, so large files may be {@link SplittableHash split}.
+ */
+public class Sha256TreeHash extends HashCalculator implements SplittableHash {
+    private static final int LEAF = 1 << 20;
+    private static final int LEAF_HASH = 32;
+
+    private final MessageDigest leaf;
+    private final MessageDigest root;
+    private long leafFill;
+    // Where leaf hashes of a piece go instead of root
+    private byte[] leaves;
+    private int leavesPosition;
+
+    public Sha256TreeHash() throws NoSuchAlgorithmException {
+        super(LEAF_HASH);
+        leaf = MessageDigest.getInstance("SHA-256");
+        root = MessageDigest.getInstance("SHA-256");
+    }
+
+    @Override
+    protected void reset() {
+        root.reset();
+        root.update((byte) 1);
+        startLeaf();
+    }
+
+    private void startLeaf() {
+        leaf.reset();
+        leaf.update((byte) 0);
+        leafFill = 0;
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            int take = (int) Math.min(buffer.remaining(), LEAF - leafFill);
+            leaf.update(buffer.slice(buffer.position(), take));
+            buffer.position(buffer.position() + take);
+            leafFill += take;
+            if (leafFill == LEAF) {
+                finishLeaf();
+            }
+        }
+    }
+
+    private void finishLeaf() {
+        if (leaves != null) {
+            digest(leaf, leaves, leavesPosition);
+            leavesPosition += LEAF_HASH;
+        } else {
+            root.update(leaf.digest());
+        }
+        startLeaf();
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        if (leafFill > 0) {
+            finishLeaf();
+        }
+        digest(root, hash, offset);
+    }
+
+    private static void digest(MessageDigest digest, byte[] hash, int offset) {
+        try {
+            digest.digest(hash, offset, LEAF_HASH);
+        } catch (DigestException e) {
+            throw new AssertionError("Digest buffer is too small", e);
+        }
+    }
+
+    @Override
+    public long alignment() {
+        return LEAF;
+    }
+
+    @Override
+    public int stateLength(long size, long pieceSize) {
+        return Math.toIntExact((size + LEAF - 1) / LEAF * LEAF_HASH);
+    }
+
+    @Override
+    public void calculatePiece(Path path, long size, long pieceSize, long offset, byte[] state) throws IOException {
+        long length = SplittableHash.pieceLength(size, pieceSize, offset);
+        startLeaf();
+        leaves = state;
+        leavesPosition = (int) (offset / LEAF * LEAF_HASH);
+        try {
+            if (reader.read(path, offset, length, this::update) != length) {
+                throw new IOException("File " + path + " was truncated while hashing");
+            }
+            if (leafFill > 0) {
+                finishLeaf();
+            }
+        } finally {
+            leaves = null;
+        }
+    }
+
+    @Override
+    public void combine(long size, long pieceSize, byte[] state, byte[] hash) {
+        root.reset();
+        root.update((byte) 1);
+        root.update(state);
+        digest(root, hash, 0);
+    }
+}
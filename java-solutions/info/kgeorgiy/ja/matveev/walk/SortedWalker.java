@@ -0,0 +1,60 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Same as {@link Files#walkFileTree(Path, FileVisitor)}, but entries of every directory are visited sorted by name,
+ * so files are visited in {@link PathOrder}.
+ */
+public class SortedWalker {
+    private static final Comparator<Path> BY_NAME = Comparator.comparing(path -> path.getFileName().toString());
+
+    private SortedWalker() {
+    }
+
+    public static void walkFileTree(Path start, FileVisitor<Path> visitor) throws IOException {
+        visit(start, visitor);
+    }
+
+    private static FileVisitResult visit(Path file, FileVisitor<Path> visitor) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return visitor.visitFileFailed(file, e);
+        }
+        if (!attrs.isDirectory()) {
+            return visitor.visitFile(file, attrs);
+        }
+
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(file)) {
+            stream.forEach(entries::add);
+        } catch (IOException e) {
+            return visitor.visitFileFailed(file, e);
+        } catch (DirectoryIteratorException e) {
+            return visitor.visitFileFailed(file, e.getCause());
+        }
+
+        FileVisitResult result = visitor.preVisitDirectory(file, attrs);
+        if (result != FileVisitResult.CONTINUE) {
+            return result == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : result;
+        }
+        entries.sort(BY_NAME);
+        for (Path entry : entries) {
+            result = visit(entry, visitor);
+            if (result == FileVisitResult.TERMINATE) {
+                return result;
+            }
+            if (result == FileVisitResult.SKIP_SIBLINGS) {
+                break;
+            }
+        }
+        return visitor.postVisitDirectory(file, null);
+    }
+}
@@ -0,0 +1,50 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * {@link HashCalculator}, whose hash of a large file may be calculated by several instances at once.
+ * File is split into {@link #pieces pieces} of equal size, except the last one, that also takes the tail
+ * shorter than a piece, every piece writes its part of shared state,
+ * and then state is combined into the same hash, as calculated by a single pass.
+ */
+public interface SplittableHash {
+    /**
+     * Piece size must be multiple of alignment.
+     */
+    long alignment();
+
+    /**
+     * Returns length of state of a file of {@code size} bytes, split into pieces of {@code pieceSize} bytes.
+     */
+    int stateLength(long size, long pieceSize);
+
+    /**
+     * Calculates piece starting at {@code offset} and writes its part of {@code state}.
+     * Different pieces of the same file may be calculated concurrently by different instances.
+     *
+     * @throws IOException if piece couldn't be read completely
+     */
+    void calculatePiece(Path path, long size, long pieceSize, long offset, byte[] state) throws IOException;
+
+    /**
+     * Combines {@code state}, whose pieces all have been calculated, into {@code hash}.
+     */
+    void combine(long size, long pieceSize, byte[] state, byte[] hash);
+
+    /**
+     * Returns number of pieces of a file of {@code size} bytes: at least one,
+     * and a tail shorter than {@code pieceSize} isn't a piece of its own.
+     */
+    static long pieces(long size, long pieceSize) {
+        return Math.max(1, size / pieceSize);
+    }
+
+    /**
+     * Returns length of the piece starting at {@code offset}.
+     */
+    static long pieceLength(long size, long pieceSize, long offset) {
+        return offset / pieceSize < pieces(size, pieceSize) - 1 ? pieceSize : size - offset;
+    }
+}
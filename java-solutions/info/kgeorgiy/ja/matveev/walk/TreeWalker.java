@@ -0,0 +1,13 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.FileVisitor;
+import java.nio.file.Path;
+
+/**
+ * Way to traverse file tree, like {@link java.nio.file.Files#walkFileTree(Path, FileVisitor)}.
+ */
+@FunctionalInterface
+public interface TreeWalker {
+    void walkFileTree(Path start, FileVisitor<Path> visitor) throws IOException;
+}
@@ -0,0 +1,234 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hashes every file on its own virtual thread, and runs {@link #fork forked} subwalks
+ * (input lines and subtrees) on virtual threads too.
+ * Results of a subwalk are collected in a separate segment, that writer drains in place of the fork,
+ * so output order is the same as of sequential walk.
+ * Number of files hashed at once is bounded by number of open files.
+ */
+public class VirtualWalkExecutor implements WalkExecutor {
+    private static final int SEGMENT_CAPACITY = 256;
+    private static final int FORKS_PER_FILE = 4;
+    private static final Object END = new Object();
+
+    private final int hashLength;
+    private final byte[] zeroHash;
+    private final HashCache hashCache;
+    private final HashConsumer hashConsumer;
+    // Taking a calculator is a permit to open a file
+    private final BlockingQueue<HashCalculator> calculators;
+    // Forking never waits for a permit, caller runs subwalk itself instead
+    private final Semaphore forks;
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Segment root = new Segment();
+    private final Thread writer;
+    private volatile IOException writeException;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    public VirtualWalkExecutor(Supplier<HashCalculator> factory, int openFiles, HashConsumer hashConsumer, HashCache hashCache) {
+        this.calculators = new ArrayBlockingQueue<>(openFiles);
+        for (int i = 0; i < openFiles; ++i) {
+            calculators.add(factory.get());
+        }
+        this.hashLength = calculators.element().hashLength;
+        this.zeroHash = new byte[hashLength];
+        this.forks = new Semaphore(openFiles * FORKS_PER_FILE);
+        this.hashConsumer = hashConsumer;
+        this.hashCache = hashCache;
+        writer = new Thread(this::write);
+        writer.start();
+    }
+
+    private void write() {
+        try {
+            write(root);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void write(Segment segment) throws InterruptedException {
+        Object item;
+        while ((item = segment.items.take()) != END) {
+            if (item instanceof Segment child) {
+                write(child);
+                continue;
+            }
+            OrderedWalkExecutor.HashTask task = (OrderedWalkExecutor.HashTask) item;
+            byte[] hash = task.result.join();
+            queueDepth.decrementAndGet();
+            if (writeException == null) {
+                try {
+                    hashConsumer.accept(task.filename, hash, task.attrs);
+                } catch (IOException e) {
+                    writeException = e;
+                }
+            }
+        }
+    }
+
+    private void calculate(OrderedWalkExecutor.HashTask task) {
+        byte[] hash = new byte[hashLength];
+        HashCalculator hashCalculator;
+        try {
+            hashCalculator = calculators.take();
+        } catch (InterruptedException e) {
+            task.result.complete(zeroHash);
+            return;
+        }
+        try {
+            WalkExecutor.calculate(hashCalculator, hashCache, task.path, task.attrs, hash);
+        } finally {
+            calculators.add(hashCalculator);
+        }
+        task.result.complete(hash);
+    }
+
+    @Override
+    public void hash(Path file, BasicFileAttributes attrs) throws IOException {
+        root.hash(file, attrs);
+    }
+
+    @Override
+    public void zero(String filename) throws IOException {
+        root.zero(filename);
+    }
+
+    @Override
+    public void known(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+        root.known(filename, hash, attrs);
+    }
+
+    @Override
+    public boolean fork(Subwalk subwalk) throws IOException {
+        return root.fork(subwalk);
+    }
+
+    @Override
+    public int queueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean interrupted = root.end();
+        interrupted |= OrderedWalkExecutor.joinUninterruptibly(writer);
+        threads.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkWriteException();
+    }
+
+    private void checkWriteException() throws IOException {
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    private class Segment implements WalkExecutor {
+        // Hash tasks and child segments in output order, then END
+        final BlockingQueue<Object> items = new ArrayBlockingQueue<>(SEGMENT_CAPACITY);
+
+        @Override
+        public void hash(Path file, BasicFileAttributes attrs) throws IOException {
+            OrderedWalkExecutor.HashTask task = new OrderedWalkExecutor.HashTask(file.toString(), file, attrs);
+            put(task);
+            queueDepth.incrementAndGet();
+            try {
+                threads.execute(() -> calculate(task));
+            } catch (RuntimeException e) {
+                // Writer waits for every submitted task
+                task.result.complete(zeroHash);
+                throw e;
+            }
+        }
+
+        @Override
+        public void zero(String filename) throws IOException {
+            known(filename, zeroHash, null);
+        }
+
+        @Override
+        public void known(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException {
+            OrderedWalkExecutor.HashTask task = new OrderedWalkExecutor.HashTask(filename, null, attrs);
+            task.result.complete(hash);
+            put(task);
+            queueDepth.incrementAndGet();
+        }
+
+        @Override
+        public boolean fork(Subwalk subwalk) throws IOException {
+            if (!forks.tryAcquire()) {
+                return false;
+            }
+            Segment child = new Segment();
+            try {
+                put(child);
+            } catch (IOException e) {
+                forks.release();
+                throw e;
+            }
+            try {
+                threads.execute(() -> {
+                    try {
+                        subwalk.walk(child);
+                    } catch (IOException | RuntimeException ignored) {
+                        // System.err.println("EXCEPTION: Couldn't walk subtree " + ignored);
+                    } finally {
+                        forks.release();
+                        if (child.end()) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                forks.release();
+                child.end();
+                throw e;
+            }
+            return true;
+        }
+
+        private void put(Object item) throws IOException {
+            checkWriteException();
+            try {
+                items.put(item);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while submitting to walk");
+            }
+        }
+
+        /**
+         * @return whether current thread was interrupted meanwhile
+         */
+        boolean end() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    items.put(END);
+                    return interrupted;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // Segment is ended by the one who forked it
+        }
+    }
+}
@@ -5,31 +5,53 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 
 public class Visitor extends SimpleFileVisitor<Path> {
-    private final HashCalculator hashCalculator;
-    private final HashWriter hashWriter;
+    private final WalkExecutor walkExecutor;
+    private final TreeWalker treeWalker;
+    private final WalkMetrics metrics;
+    private int depth;
 
-    public Visitor(HashCalculator hashCalculator, HashWriter hashWriter) {
-        this.hashCalculator = hashCalculator;
-        this.hashWriter = hashWriter;
+    public Visitor(WalkExecutor walkExecutor) {
+        this(walkExecutor, null, null);
     }
 
-    @Override
-    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        String hash = hashCalculator.zeroHash;
+    /**
+     * @param treeWalker Walker for subdirectories, that {@code walkExecutor} may {@link WalkExecutor#fork fork}
+     * @param metrics    Where visit errors are counted, if not {@code null}
+     */
+    public Visitor(WalkExecutor walkExecutor, TreeWalker treeWalker, WalkMetrics metrics) {
+        this.walkExecutor = walkExecutor;
+        this.treeWalker = treeWalker;
+        this.metrics = metrics;
+    }
 
-        try {
-            hash = hashCalculator.calculateHash(file);
-        } catch (IOException ignored) {
-            // System.err.printf("Couldn't calculate hash for file %s, so assuming that hash is zero", file);
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (depth > 0 && treeWalker != null
+                && walkExecutor.fork(executor -> treeWalker.walkFileTree(dir, new Visitor(executor, treeWalker, metrics)))) {
+            return FileVisitResult.SKIP_SUBTREE;
         }
+        ++depth;
+        return FileVisitResult.CONTINUE;
+    }
 
-        hashWriter.writeHash(file.toString(), hash);
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        --depth;
+        return super.postVisitDirectory(dir, exc);
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        walkExecutor.hash(file, attrs);
         return FileVisitResult.CONTINUE;
     }
 
     @Override
     public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
-        hashWriter.writeHash(file.toString(), hashCalculator.zeroHash);
+        if (metrics != null) {
+            metrics.visitErrors.increment();
+        }
+        walkExecutor.zero(file.toString());
         return FileVisitResult.CONTINUE;
     }
 }
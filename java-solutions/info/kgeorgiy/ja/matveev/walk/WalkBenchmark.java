@@ -0,0 +1,113 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures recursive walk of synthetic temporary trees: many tiny files, few huge files, deep and wide directories.
+ * For every tree, every registered algorithm is measured on the single-threaded path through {@link Visitor},
+ * {@link SequentialWalkExecutor} and {@link HashWriter}, with allocation per file, since all of it runs
+ * on the benchmark thread. Then every {@code --mode} is measured with the default algorithm.
+ * Every top-level directory is listed in input file, so virtual mode forks both input lines and subtrees.
+ * Usage: {@code WalkBenchmark [scale] [threads] [iterations]}.
+ */
+public class WalkBenchmark {
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final List<String> MODES = List.of("pool", "async", "virtual");
+
+    /**
+     * Every one of {@code directories} top-level directories is a chain of {@code depth} nested directories
+     * with {@code files} files of {@code fileSize} bytes on every level.
+     */
+    private record Shape(String name, int directories, int depth, int files, long fileSize) {
+        long totalFiles() {
+            return (long) directories * depth * files;
+        }
+
+        long totalBytes() {
+            return totalFiles() * fileSize;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<Shape> shapes = List.of(
+                new Shape("tiny", 100 * scale, 1, 200, 100),
+                new Shape("huge", 1, 1, 2, (128L << 20) * scale),
+                new Shape("deep", scale, 100, 20, 4096),
+                new Shape("wide", 1, 1, 20_000 * scale, 1024)
+        );
+        for (Shape shape : shapes) {
+            Path root = Files.createTempDirectory("walk-benchmark");
+            try {
+                Path input = generate(root, shape);
+                Path output = root.resolve("output.txt");
+                for (String algorithm : HashCalculators.names()) {
+                    measure(shape, algorithm, iterations, true,
+                            new String[]{"--threads", "1", input.toString(), output.toString(), algorithm});
+                }
+                for (String mode : MODES) {
+                    measure(shape, mode, iterations, false,
+                            new String[]{"--threads", Integer.toString(threads), "--mode", mode, input.toString(), output.toString()});
+                }
+            } finally {
+                delete(root);
+            }
+        }
+    }
+
+    private static void measure(Shape shape, String name, int iterations, boolean allocation, String[] walkArgs) {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+            CommonWalk.run(walkArgs, true);
+        }
+        long allocated = HashBenchmark.allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            CommonWalk.run(walkArgs, true);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-5s %-12s %12.1f files/s %10.1f MB/s %s%n", shape.name(), name,
+                shape.totalFiles() * iterations / seconds, shape.totalBytes() * (double) iterations / seconds / (1 << 20),
+                allocation ? String.format("%10.1f B/file", (HashBenchmark.allocatedBytes() - allocated) / ((double) shape.totalFiles() * iterations)) : "");
+    }
+
+    private static Path generate(Path root, Shape shape) throws IOException {
+        Random random = new Random(0);
+        byte[] data = new byte[(int) Math.min(shape.fileSize(), 1 << 20)];
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < shape.directories(); ++i) {
+            Path directory = root.resolve("tree").resolve("d" + i);
+            lines.add(directory.toString());
+            for (int level = 0; level < shape.depth(); ++level, directory = directory.resolve("l" + level)) {
+                Files.createDirectories(directory);
+                for (int j = 0; j < shape.files(); ++j) {
+                    try (OutputStream out = Files.newOutputStream(directory.resolve("f" + j))) {
+                        for (long written = 0; written < shape.fileSize(); written += data.length) {
+                            random.nextBytes(data);
+                            out.write(data, 0, (int) Math.min(data.length, shape.fileSize() - written));
+                        }
+                    }
+                }
+            }
+        }
+        return Files.write(root.resolve("input.txt"), lines);
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
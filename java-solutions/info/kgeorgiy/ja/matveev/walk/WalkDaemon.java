@@ -0,0 +1,398 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Long-lived recursive walk. Input is walked once, then walked directories are watched by {@link WatchService},
+ * and only paths touched since are removed from the in-memory index and walked again.
+ * {@link HashIndex} is ordered by {@link PathOrder}, so every input line is dumped like by a {@code --sorted} walk,
+ * though input lines themselves keep their order.
+ * Output file is replaced by a fresh dump after the initial walk and after every batch of events,
+ * and a dump to any file can be requested through JMX.
+ * Hashes are looked up in {@code --cache}, which is saved on close, so a restarted daemon hashes only changed files.
+ * Output file and its temporary sibling are neither walked nor watched, even if they are under input,
+ * as otherwise every dump would cause another one.
+ */
+public class WalkDaemon implements WalkDaemonMXBean, AutoCloseable {
+    private static final AtomicInteger DAEMONS = new AtomicInteger();
+
+    private final WalkOptions options;
+    private final Supplier<HashCalculator> factory;
+    private final HashCalculator hashCalculator;
+    private final HashCache hashCache;
+    private final Path outputPath;
+    private final Path absoluteOutput;
+    private final Path outputTmp;
+    private final byte[] zeroHash;
+    private final List<String> lines;
+    // Parsed input lines, null for invalid ones
+    private final Path[] roots;
+    private final Path[] absoluteRoots;
+    private final HashIndex index;
+    private final WatchService watchService;
+    // Absolute path of every watched directory, both maps are accessed only by the running thread
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final NavigableMap<String, WatchKey> watched = new TreeMap<>(PathOrder.COMPARATOR);
+    private final LongAdder updates = new LongAdder();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running;
+    private ObjectName name;
+
+    private WalkDaemon(WalkOptions options, Supplier<HashCalculator> factory, HashCalculator hashCalculator,
+                       HashCache hashCache, Path outputPath, List<String> lines) throws IOException {
+        this.options = options;
+        this.factory = factory;
+        this.hashCalculator = hashCalculator;
+        this.hashCache = hashCache;
+        this.outputPath = outputPath;
+        this.absoluteOutput = outputPath.toAbsolutePath().normalize();
+        this.outputTmp = tmp(absoluteOutput);
+        this.zeroHash = new byte[hashCalculator.hashLength];
+        this.index = new HashIndex(hashCalculator.hashLength);
+        this.lines = lines;
+        this.roots = new Path[lines.size()];
+        this.absoluteRoots = new Path[lines.size()];
+        for (int i = 0; i < roots.length; ++i) {
+            try {
+                roots[i] = Paths.get(lines.get(i));
+                absoluteRoots[i] = roots[i].toAbsolutePath().normalize();
+            } catch (InvalidPathException e) {
+                roots[i] = null;
+            }
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Creates daemon for arguments of recursive walk, or returns {@code null} if they are invalid.
+     * Modes other than pool, diff and dedup report aren't supported.
+     */
+    public static WalkDaemon create(String[] args) {
+        WalkOptions options = WalkOptions.parse(args);
+        if (options == null) {
+            return null;
+        }
+        if (!options.mode.equals("pool") || options.diffFile != null || options.dedupFile != null) {
+            // System.err.println("Daemon supports only pool mode without diff and dedup report");
+            return null;
+        }
+        args = options.positional;
+
+        String algorithm = args.length == 2 ? "jenkins" : args[2];
+        HashCalculator hashCalculator;
+        try {
+            hashCalculator = HashCalculators.create(algorithm, options.mapThreshold);
+        } catch (NoSuchAlgorithmException e) {
+            // System.err.println("Sorry, we don't have " + algorithm + " implementation");
+            return null;
+        }
+        if (hashCalculator == null) {
+            // System.err.println("Unknown algorithm " + algorithm + ", known are " + HashCalculators.names());
+            return null;
+        }
+
+        try {
+            HashCache hashCache = options.cacheFile == null ? null
+                    : HashCache.load(Paths.get(options.cacheFile), algorithm, hashCalculator.hashLength);
+            Path outputPath = Paths.get(args[1]);
+            List<String> lines = Files.readAllLines(Paths.get(args[0]));
+            return new WalkDaemon(options, HashCalculators.factory(algorithm, options.mapThreshold), hashCalculator,
+                    hashCache, outputPath, lines);
+        } catch (IOException | InvalidPathException | SecurityException e) {
+            // System.err.println("EXCEPTION: Couldn't start daemon: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Walks input and then applies watch events until {@link #close()}.
+     */
+    public void run() {
+        running = true;
+        register();
+        try {
+            update(Map.of(), true);
+            Map<Path, Boolean> touched = new LinkedHashMap<>();
+            boolean overflow = false;
+            long deadline = 0;
+            while (true) {
+                WatchKey key;
+                if (touched.isEmpty() && !overflow) {
+                    key = watchService.take();
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.watchDelayMillis);
+                } else {
+                    key = watchService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                if (key == null) {
+                    update(touched, overflow);
+                    touched.clear();
+                    overflow = false;
+                    continue;
+                }
+
+                Path dir = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                    } else if (dir != null && !isOwn(dir.resolve((Path) event.context()))) {
+                        // Only creation and removal change the set of paths, modification of a directory doesn't
+                        touched.merge(dir.resolve((Path) event.context()), event.kind() != ENTRY_MODIFY, Boolean::logicalOr);
+                    }
+                }
+                if (!key.reset()) {
+                    forget(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        } finally {
+            unregister();
+            if (hashCache != null) {
+                try {
+                    hashCache.save();
+                } catch (IOException | SecurityException e) {
+                    // System.err.println("EXCEPTION: Couldn't save hash cache " + options.cacheFile);
+                }
+            }
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Removes touched paths with their subtrees from index, walks again those, that still exist, and dumps the index.
+     *
+     * @param all whether every input line should be walked again
+     */
+    private void update(Map<Path, Boolean> touched, boolean all) {
+        List<Path> walks = new ArrayList<>();
+        boolean changed = all;
+        if (all) {
+            index.clear();
+            directories.keySet().forEach(WatchKey::cancel);
+            directories.clear();
+            watched.clear();
+            for (int i = 0; i < roots.length; ++i) {
+                if (roots[i] != null) {
+                    // Parent is watched, so that root is noticed, when it is created again
+                    if (absoluteRoots[i].getParent() != null) {
+                        watch(absoluteRoots[i].getParent());
+                    }
+                    walks.add(roots[i]);
+                }
+            }
+        }
+        for (Map.Entry<Path, Boolean> entry : touched.entrySet()) {
+            Path path = entry.getKey();
+            if (!entry.getValue() && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            }
+            for (int i = 0; i < roots.length; ++i) {
+                if (roots[i] != null && path.startsWith(absoluteRoots[i])) {
+                    Path spelled = roots[i].resolve(absoluteRoots[i].relativize(path));
+                    changed = true;
+                    index.removeSubtree(spelled.toString());
+                    // Root is walked even if it is missing, so that it is reported with zero hash
+                    if (path.equals(absoluteRoots[i]) || Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                        walks.add(spelled);
+                    }
+                }
+            }
+            if (entry.getValue()) {
+                removeSubtree(watched, path.toString(), key -> {
+                    key.cancel();
+                    directories.remove(key);
+                });
+            }
+        }
+
+        // Events outside of input, like replacement of output file next to it, don't need a new dump
+        if (!changed) {
+            return;
+        }
+
+        // All removals precede the walks, as walk results are added by the executor asynchronously
+        try (WalkExecutor executor = CommonWalk.createExecutor(options, factory, hashCalculator, index::put, hashCache)) {
+            for (Path path : walks) {
+                Files.walkFileTree(path, new WatchingVisitor(executor));
+            }
+        } catch (IOException e) {
+            // System.err.println("EXCEPTION: Couldn't walk: " + e);
+        }
+        if (!all) {
+            updates.increment();
+        }
+
+        try {
+            dump(outputPath);
+        } catch (IOException | SecurityException e) {
+            // System.err.println("EXCEPTION: Couldn't write output file " + outputPath);
+        }
+    }
+
+    /**
+     * Returns whether normalized absolute {@code path} is written by the daemon itself.
+     */
+    private boolean isOwn(Path path) {
+        return path.equals(absoluteOutput) || path.equals(outputTmp);
+    }
+
+    private static Path tmp(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    private void watch(Path dir) {
+        try {
+            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            directories.put(key, dir);
+            watched.put(dir.toString(), key);
+        } catch (IOException | SecurityException e) {
+            // System.err.println("WARNING: Couldn't watch directory " + dir + ", its changes will be missed");
+        }
+    }
+
+    private void forget(WatchKey key) {
+        Path dir = directories.remove(key);
+        if (dir != null) {
+            watched.remove(dir.toString(), key);
+        }
+    }
+
+    /**
+     * Removes {@code path} and every path under it from {@code map} ordered by {@link PathOrder},
+     * where they are contiguous.
+     */
+    private static <V> void removeSubtree(NavigableMap<String, V> map, String path, Consumer<V> removed) {
+        V value = map.remove(path);
+        if (value != null) {
+            removed.accept(value);
+        }
+        String prefix = path + File.separator;
+        for (Iterator<Map.Entry<String, V>> it = map.tailMap(prefix).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, V> entry = it.next();
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            removed.accept(entry.getValue());
+            it.remove();
+        }
+    }
+
+    @Override
+    public int getFiles() {
+        return index.size();
+    }
+
+    @Override
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    @Override
+    public void dump(String file) throws IOException {
+        dump(Paths.get(file));
+    }
+
+    /**
+     * Writes index to a temporary sibling, which then replaces {@code path}, so readers never see partial dump.
+     * Dumps are synchronized, as dumps to the same file share the sibling.
+     */
+    synchronized void dump(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path tmp = tmp(absolute);
+        try {
+            try (HashWriter hashWriter = new HashWriter(tmp, options)) {
+                for (int i = 0; i < roots.length; ++i) {
+                    if (roots[i] == null) {
+                        hashWriter.writeHash(lines.get(i), zeroHash);
+                    } else {
+                        index.forEach(roots[i].toString(), (filename, length, hash, size, modified) -> hashWriter.writeHash(
+                                null, filename, length, hash, size, modified < 0 ? null : FileTime.from(modified, TimeUnit.NANOSECONDS)));
+                    }
+                }
+            }
+            Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Stops watching and waits until {@link #run()} saves cache.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        if (running) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void register() {
+        try {
+            name = new ObjectName("info.kgeorgiy.ja.matveev.walk:type=WalkDaemon,id=" + DAEMONS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            // System.err.println("WARNING: Couldn't register walk daemon: " + e);
+            name = null;
+        }
+    }
+
+    private void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException | SecurityException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Watches every directory it enters, before its entries are read.
+     */
+    private class WatchingVisitor extends Visitor {
+        WatchingVisitor(WalkExecutor walkExecutor) {
+            super(walkExecutor);
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            return isOwn(file.toAbsolutePath().normalize()) ? FileVisitResult.CONTINUE : super.visitFile(file, attrs);
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            watch(dir.toAbsolutePath().normalize());
+            return super.preVisitDirectory(dir, attrs);
+        }
+    }
+}
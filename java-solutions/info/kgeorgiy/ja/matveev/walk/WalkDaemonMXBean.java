@@ -0,0 +1,23 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+
+/**
+ * Live index of a walk daemon, registered in platform MBean server while the daemon runs.
+ */
+public interface WalkDaemonMXBean {
+    /**
+     * Paths in the index, including files, that couldn't be visited.
+     */
+    int getFiles();
+
+    /**
+     * Batches of watch events applied to the index since the initial walk.
+     */
+    long getUpdates();
+
+    /**
+     * Writes current index to {@code file} in the output format of the daemon.
+     */
+    void dump(String file) throws IOException;
+}
@@ -0,0 +1,63 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+public interface WalkExecutor extends AutoCloseable {
+
+    void hash(Path file, BasicFileAttributes attrs) throws IOException;
+
+    void zero(String filename) throws IOException;
+
+    /**
+     * Passes {@code hash}, that is already known, in order with other files.
+     */
+    void known(String filename, byte[] hash, BasicFileAttributes attrs) throws IOException;
+
+    /**
+     * Offers to run {@code subwalk} concurrently, with its results put in place of this call in output order.
+     *
+     * @return whether {@code subwalk} was taken, otherwise caller should run it itself
+     */
+    default boolean fork(Subwalk subwalk) throws IOException {
+        return false;
+    }
+
+    /**
+     * Returns number of files submitted, but not yet passed to consumer.
+     */
+    default int queueDepth() {
+        return 0;
+    }
+
+    @Override
+    void close() throws IOException;
+
+    @FunctionalInterface
+    interface Subwalk {
+        void walk(WalkExecutor walkExecutor) throws IOException;
+    }
+
+    /**
+     * Puts hash of {@code file} to {@code hash}, taking it from {@code hashCache} if possible.
+     * If file couldn't be read, hash is zero.
+     */
+    static void calculate(HashCalculator hashCalculator, HashCache hashCache, Path file, BasicFileAttributes attrs, byte[] hash) {
+        if (hashCache != null && hashCache.lookup(file, attrs, hash)) {
+            return;
+        }
+
+        try {
+            hashCalculator.calculateHash(file, hash);
+        } catch (IOException ignored) {
+            // System.err.printf("Couldn't calculate hash for file %s, so assuming that hash is zero", file);
+            Arrays.fill(hash, (byte) 0);
+            return;
+        }
+        if (hashCache != null) {
+            hashCache.store(file, attrs, hash);
+        }
+    }
+}
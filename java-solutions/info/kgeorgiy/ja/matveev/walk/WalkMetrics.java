@@ -0,0 +1,153 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters of a walk. They are {@link LongAdder}s updated once per file, per batch of small files
+ * or per piece of a split file, but never per read buffer, so metrics are cheap enough to be always on.
+ */
+public class WalkMetrics implements WalkMetricsMXBean {
+    private static final AtomicInteger WALKS = new AtomicInteger();
+
+    private final long start = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    final LongAdder visitErrors = new LongAdder();
+    final LongAdder invalidPaths = new LongAdder();
+    final LongAdder writeErrors = new LongAdder();
+    private final Map<String, Hashing> hashing = new ConcurrentHashMap<>();
+    private volatile IntSupplier queueDepth = () -> 0;
+    private ObjectName name;
+
+    /**
+     * Hashing time and read errors of one algorithm.
+     */
+    static class Hashing {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    Hashing hashing(String algorithm) {
+        return hashing.computeIfAbsent(algorithm, key -> new Hashing());
+    }
+
+    void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Returns consumer, that counts files and bytes passed to {@code hashConsumer}.
+     */
+    HashConsumer meter(HashConsumer hashConsumer) {
+        return (String filename, byte[] hash, BasicFileAttributes attrs) -> {
+            files.increment();
+            if (attrs != null) {
+                bytes.add(attrs.size());
+            }
+            hashConsumer.accept(filename, hash, attrs);
+        };
+    }
+
+    /**
+     * Registers these metrics in platform MBean server. Failure to register doesn't affect the walk.
+     */
+    void register() {
+        try {
+            name = new ObjectName("info.kgeorgiy.ja.matveev.walk:type=Walk,id=" + WALKS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            // System.err.println("WARNING: Couldn't register walk metrics: " + e);
+            name = null;
+        }
+    }
+
+    void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException | SecurityException ignored) {
+            }
+        }
+    }
+
+    String progressLine() {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                "%d files (%.1f/s), %.1f MiB (%.1f MiB/s), queue %d, errors: read %d, visit %d, invalid path %d, write %d",
+                getFiles(), getFilesPerSecond(), getBytes() / 1048576.0, getBytesPerSecond() / 1048576.0, getQueueDepth(),
+                getReadErrors(), getVisitErrors(), getInvalidPaths(), getWriteErrors()));
+        getHashMillis().forEach((algorithm, millis) -> line.append(", ").append(algorithm).append(' ').append(millis).append(" ms"));
+        return line.toString();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return perSecond(getFiles());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(getBytes());
+    }
+
+    private double perSecond(long count) {
+        return count * 1e9 / Math.max(1, System.nanoTime() - start);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public Map<String, Long> getHashMillis() {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        hashing.forEach((algorithm, metrics) -> millis.put(algorithm, TimeUnit.NANOSECONDS.toMillis(metrics.nanos.sum())));
+        return millis;
+    }
+
+    @Override
+    public long getReadErrors() {
+        return hashing.values().stream().mapToLong(metrics -> metrics.errors.sum()).sum();
+    }
+
+    @Override
+    public long getVisitErrors() {
+        return visitErrors.sum();
+    }
+
+    @Override
+    public long getInvalidPaths() {
+        return invalidPaths.sum();
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+}
@@ -0,0 +1,42 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.util.Map;
+
+/**
+ * Runtime metrics of a walk, registered in platform MBean server while the walk runs.
+ */
+public interface WalkMetricsMXBean {
+    long getElapsedMillis();
+
+    long getFiles();
+
+    long getBytes();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * Files submitted to the executor, but not yet written.
+     */
+    int getQueueDepth();
+
+    /**
+     * Time spent in hashing by every algorithm, summed over all threads.
+     */
+    Map<String, Long> getHashMillis();
+
+    /**
+     * Files, that couldn't be read while hashing.
+     */
+    long getReadErrors();
+
+    /**
+     * Files, that couldn't be visited while walking.
+     */
+    long getVisitErrors();
+
+    long getInvalidPaths();
+
+    long getWriteErrors();
+}
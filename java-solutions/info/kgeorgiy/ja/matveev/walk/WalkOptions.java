@@ -0,0 +1,216 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.util.Arrays;
+
+public class WalkOptions {
+    int threads = Runtime.getRuntime().availableProcessors();
+    long mapThreshold = ChannelReader.DEFAULT_MAP_THRESHOLD;
+    String cacheFile;
+    String format = "text";
+    String compression = "none";
+    long flushBytes = Long.MAX_VALUE;
+    long flushMillis = 1000;
+    String mode = "pool";
+    int asyncFiles;
+    int asyncDepth = 4;
+    int openFiles;
+    int walkThreads;
+    int batchSize = 64;
+    long splitSize = 64 << 20;
+    long progressMillis;
+    int prefetch;
+    long watchDelayMillis = 200;
+    boolean sorted;
+    String diffFile;
+    String dedupFile;
+    boolean verify;
+    long maxFailures = Long.MAX_VALUE;
+    long maxRate;
+
+    String[] positional;
+
+    WalkOptions() {
+    }
+
+    static WalkOptions parse(String[] args) {
+        if (args == null) {
+            return null;
+        }
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i] == null) {
+                // System.err.printf("Argument %d is null%n", i);
+                return null;
+            }
+        }
+
+        WalkOptions options = new WalkOptions();
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("--"); ++i) {
+                switch (args[i]) {
+                    case "--threads" -> {
+                        options.threads = Integer.parseInt(args[++i]);
+                        if (options.threads <= 0) {
+                            // System.err.println("Number of threads must be positive");
+                            return null;
+                        }
+                    }
+                    case "--mode" -> {
+                        options.mode = args[++i];
+                        if (!options.mode.equals("pool") && !options.mode.equals("async") && !options.mode.equals("virtual")) {
+                            // System.err.println("Mode must be pool, async or virtual");
+                            return null;
+                        }
+                    }
+                    case "--async-files" -> {
+                        options.asyncFiles = Integer.parseInt(args[++i]);
+                        if (options.asyncFiles <= 0) {
+                            // System.err.println("Number of files in flight must be positive");
+                            return null;
+                        }
+                    }
+                    case "--async-depth" -> {
+                        options.asyncDepth = Integer.parseInt(args[++i]);
+                        if (options.asyncDepth <= 0) {
+                            // System.err.println("Number of reads per file must be positive");
+                            return null;
+                        }
+                    }
+                    case "--open-files" -> {
+                        options.openFiles = Integer.parseInt(args[++i]);
+                        if (options.openFiles <= 0) {
+                            // System.err.println("Number of open files must be positive");
+                            return null;
+                        }
+                    }
+                    case "--walk-threads" -> {
+                        options.walkThreads = Integer.parseInt(args[++i]);
+                        if (options.walkThreads <= 0) {
+                            // System.err.println("Number of traversal threads must be positive");
+                            return null;
+                        }
+                    }
+                    case "--batch-size" -> {
+                        options.batchSize = Integer.parseInt(args[++i]);
+                        if (options.batchSize <= 0) {
+                            // System.err.println("Batch size must be positive");
+                            return null;
+                        }
+                    }
+                    case "--split-size" -> {
+                        options.splitSize = Long.parseLong(args[++i]);
+                        if (options.splitSize < 0) {
+                            // System.err.println("Split size must be non-negative");
+                            return null;
+                        }
+                    }
+                    case "--progress" -> {
+                        options.progressMillis = Long.parseLong(args[++i]);
+                        if (options.progressMillis <= 0) {
+                            // System.err.println("Progress interval must be positive");
+                            return null;
+                        }
+                    }
+                    case "--prefetch" -> {
+                        options.prefetch = Integer.parseInt(args[++i]);
+                        if (options.prefetch < 0) {
+                            // System.err.println("Number of prefetched input lines must be non-negative");
+                            return null;
+                        }
+                    }
+                    case "--watch-delay" -> {
+                        options.watchDelayMillis = Long.parseLong(args[++i]);
+                        if (options.watchDelayMillis < 0) {
+                            // System.err.println("Watch delay must be non-negative");
+                            return null;
+                        }
+                    }
+                    case "--map-threshold" -> {
+                        options.mapThreshold = Long.parseLong(args[++i]);
+                        if (options.mapThreshold < 0) {
+                            // System.err.println("Map threshold must be non-negative");
+                            return null;
+                        }
+                    }
+                    case "--cache" -> options.cacheFile = args[++i];
+                    case "--sorted" -> options.sorted = true;
+                    case "--diff" -> {
+                        options.diffFile = args[++i];
+                        options.sorted = true;
+                    }
+                    case "--dedup" -> options.dedupFile = args[++i];
+                    case "--verify" -> options.verify = true;
+                    case "--max-failures" -> {
+                        options.maxFailures = Long.parseLong(args[++i]);
+                        if (options.maxFailures <= 0) {
+                            // System.err.println("Number of failures must be positive");
+                            return null;
+                        }
+                    }
+                    case "--max-rate" -> {
+                        options.maxRate = Long.parseLong(args[++i]);
+                        if (options.maxRate <= 0) {
+                            // System.err.println("Rate must be positive");
+                            return null;
+                        }
+                    }
+                    case "--format" -> {
+                        options.format = args[++i];
+                        if (!options.format.equals("text") && !options.format.equals("json")) {
+                            // System.err.println("Format must be text or json");
+                            return null;
+                        }
+                    }
+                    case "--compress" -> {
+                        options.compression = args[++i];
+                        if (!options.compression.equals("none") && !options.compression.equals("gzip")) {
+                            // System.err.println("Compression must be none or gzip");
+                            return null;
+                        }
+                    }
+                    case "--flush-bytes" -> {
+                        options.flushBytes = Long.parseLong(args[++i]);
+                        if (options.flushBytes <= 0) {
+                            // System.err.println("Flush size must be positive");
+                            return null;
+                        }
+                    }
+                    case "--flush-interval" -> {
+                        options.flushMillis = Long.parseLong(args[++i]);
+                        if (options.flushMillis < 0) {
+                            // System.err.println("Flush interval must be non-negative");
+                            return null;
+                        }
+                    }
+                    default -> {
+                        // System.err.println("Unknown option " + args[i]);
+                        return null;
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // System.err.println("Option " + args[i - 1] + " expects value");
+            return null;
+        } catch (NumberFormatException e) {
+            // System.err.println("Option " + args[i - 1] + " expects numeric value");
+            return null;
+        }
+
+        if (options.dedupFile != null && (options.mode.equals("async") || options.cacheFile != null || options.diffFile != null)) {
+            // System.err.println("Dedup report needs every file to be read, so it can't be used with async mode, cache or diff");
+            return null;
+        }
+
+        if (options.verify && (options.diffFile != null || options.dedupFile != null)) {
+            // System.err.println("Verification can't be used with diff or dedup report");
+            return null;
+        }
+
+        options.positional = Arrays.copyOfRange(args, i, args.length);
+        if (options.positional.length < 2 || options.positional.length > 3) {
+            // System.err.println("Wrong number of arguments. Usage: [--threads n] [--mode pool|async|virtual] [--async-files n] [--async-depth n] [--open-files n] [--walk-threads n] [--batch-size n] [--split-size bytes] [--progress ms] [--prefetch n] [--watch-delay ms] [--map-threshold bytes] [--cache file] [--format text|json] [--compress none|gzip] [--flush-bytes n] [--flush-interval ms] [--sorted] [--diff baseline_file] [--dedup report_file] [--verify [--max-failures n] [--max-rate bytes_per_second]] input_file output_file [hash_function]");
+            return null;
+        }
+        return options;
+    }
+}
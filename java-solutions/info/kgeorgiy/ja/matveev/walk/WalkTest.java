@@ -0,0 +1,724 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+public class WalkTest {
+    private static final int FILES = 200;
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 20;
+
+    private final Random random = new Random(4875043285743285204L);
+    private Path root;
+    private final List<Path> files = new ArrayList<>();
+
+    @BeforeEach
+    public void createFiles() throws IOException {
+        root = Files.createTempDirectory("walk-test");
+        for (int i = 0; i < FILES; ++i) {
+            Path file = root.resolve("tree").resolve("dir" + i % 7).resolve("file" + i);
+            Files.createDirectories(file.getParent());
+            byte[] data = new byte[random.nextInt(i % 10 == 0 ? 1 << 21 : 1 << 12)];
+            random.nextBytes(data);
+            Files.write(file, data);
+            files.add(file);
+        }
+    }
+
+    @AfterEach
+    public void deleteFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private List<String> hashAll(HashCalculator hashCalculator) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        byte[] hash = new byte[hashCalculator.hashLength];
+        for (Path file : files) {
+            hashCalculator.calculateHash(file, hash);
+            hashes.add(HexFormat.of().formatHex(hash));
+        }
+        return hashes;
+    }
+
+    @Test
+    public void testSha1Stress() throws Exception {
+        List<String> expected = hashAll(new Sha1Hash());
+        // Instances start together and hash different files at the same time,
+        // so any buffer shared between them would mix their data
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < ROUNDS * THREADS; ++i) {
+                int shift = i * FILES / THREADS;
+                futures.add(executor.submit(() -> {
+                    HashCalculator hashCalculator = new Sha1Hash();
+                    List<Path> rotated = new ArrayList<>(files);
+                    Collections.rotate(rotated, shift);
+                    start.await();
+                    List<String> hashes = new ArrayList<>();
+                    byte[] hash = new byte[hashCalculator.hashLength];
+                    for (Path file : rotated) {
+                        hashCalculator.calculateHash(file, hash);
+                        hashes.add(HexFormat.of().formatHex(hash));
+                    }
+                    Collections.rotate(hashes, -shift);
+                    return hashes;
+                }));
+            }
+            for (Future<List<String>> future : futures) {
+                Assertions.assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFactorySha1Stress() throws Exception {
+        List<String> expected = hashAll(new Sha1Hash());
+        // Every worker of a parallel walk hashes with its own calculator of the factory
+        Supplier<HashCalculator> factory = HashCalculators.factory("sha-1", 1 << 20);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < ROUNDS * THREADS; ++i) {
+                futures.add(executor.submit(() -> hashAll(factory.get())));
+            }
+            for (Future<List<String>> future : futures) {
+                Assertions.assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParallelWalkMatchesSequential() throws IOException, NoSuchAlgorithmException {
+        Path input = root.resolve("input.txt");
+        Files.writeString(input, root.resolve("tree") + System.lineSeparator() + root.resolve("missing") + System.lineSeparator());
+
+        for (String algorithm : HashCalculators.names()) {
+            Path sequential = root.resolve("sequential-" + algorithm);
+            CommonWalk.run(new String[]{"--threads", "1", input.toString(), sequential.toString(), algorithm}, true);
+            for (String mode : List.of("pool", "async", "virtual")) {
+                Path parallel = root.resolve(mode + "-" + algorithm);
+                CommonWalk.run(new String[]{"--threads", Integer.toString(THREADS), "--mode", mode, input.toString(), parallel.toString(), algorithm}, true);
+                Assertions.assertEquals(Files.readAllLines(sequential), Files.readAllLines(parallel), mode + " " + algorithm);
+                Assertions.assertEquals(FILES + 1, Files.readAllLines(parallel).size(), mode + " " + algorithm);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelWalker() throws IOException {
+        Path input = root.resolve("input.txt");
+        Files.writeString(input, root.resolve("tree") + System.lineSeparator() + root.resolve("missing") + System.lineSeparator());
+
+        for (List<String> order : List.of(List.<String>of(), List.of("--sorted"))) {
+            Path expected = root.resolve("expected.txt");
+            Path actual = root.resolve("actual.txt");
+            run(order, List.of("--threads", "1"), input, expected);
+            for (String mode : List.of("pool", "virtual")) {
+                run(order, List.of("--walk-threads", "3", "--mode", mode), input, actual);
+                Assertions.assertEquals(Files.readAllLines(expected), Files.readAllLines(actual), mode + " " + order);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelWalkerLookahead() throws IOException {
+        // Wider and deeper than the walker lists ahead
+        Path wide = root.resolve("wide");
+        for (int i = 0; i < 40; ++i) {
+            Path dir = Files.createDirectories(wide.resolve("dir" + i).resolve("sub" + i % 3));
+            Files.write(dir.resolve("file" + i), new byte[]{(byte) i});
+        }
+        List<Path> expected;
+        try (Stream<Path> paths = Files.walk(wide)) {
+            expected = paths.filter(Files::isRegularFile).sorted(Comparator.comparing(Path::toString, PathOrder.COMPARATOR)).toList();
+        }
+
+        try (ParallelWalker walker = new ParallelWalker(4, true)) {
+            List<Path> visited = new ArrayList<>();
+            List<Path> skipped = new ArrayList<>();
+            SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // Subtrees are skipped and walked later, like subwalks of a forking executor
+                    if (dir.getParent().equals(wide) && !skipped.contains(dir)) {
+                        skipped.add(dir);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    visited.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            };
+            walker.walkFileTree(wide, visitor);
+            Assertions.assertEquals(List.of(), visited);
+            Assertions.assertEquals(40, skipped.size());
+            // Skipped directories aren't listed again, so an entry created after their listing isn't seen
+            Files.write(Files.createDirectories(wide.resolve("dir0").resolve("late")).resolve("file"), new byte[]{1});
+            for (Path dir : List.copyOf(skipped)) {
+                walker.walkFileTree(dir, visitor);
+            }
+            Assertions.assertEquals(expected, visited);
+        }
+    }
+
+    private static void run(List<String> order, List<String> options, Path input, Path output) {
+        List<String> args = new ArrayList<>(order);
+        args.addAll(options);
+        args.addAll(List.of(input.toString(), output.toString()));
+        CommonWalk.run(args.toArray(String[]::new), true);
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        Path input = Files.write(root.resolve("input.txt"), List.of(root.resolve("tree").toString(), root.resolve("missing").toString(), "\0"));
+        long bytes = 0;
+        for (Path file : files) {
+            bytes += Files.size(file);
+        }
+        for (List<String> options : List.of(List.of("--threads", "1"), List.of("--threads", "4", "--split-size", Integer.toString(1 << 20)),
+                List.of("--mode", "async"), List.of("--mode", "virtual"))) {
+            WalkMetrics metrics = new WalkMetrics();
+            List<String> args = new ArrayList<>(options);
+            args.addAll(List.of("--progress", "50", input.toString(), root.resolve("output.txt").toString(), "crc32c"));
+            CommonWalk.run(args.toArray(String[]::new), true, metrics);
+            // Missing and invalid paths are written with zero hash too
+            Assertions.assertEquals(FILES + 2, metrics.getFiles(), options::toString);
+            Assertions.assertEquals(bytes, metrics.getBytes(), options::toString);
+            Assertions.assertEquals(1, metrics.getVisitErrors(), options::toString);
+            Assertions.assertEquals(1, metrics.getInvalidPaths(), options::toString);
+            Assertions.assertEquals(0, metrics.getReadErrors(), options::toString);
+            Assertions.assertEquals(0, metrics.getWriteErrors(), options::toString);
+            Assertions.assertEquals(List.of("crc32c"), List.copyOf(metrics.getHashMillis().keySet()), options::toString);
+        }
+    }
+
+    @Test
+    public void testPrefetch() throws IOException {
+        Path input = root.resolve("input.txt");
+        Files.write(input, Stream.concat(files.stream().map(Path::toString), Stream.of("missing", "\0", root.resolve("tree").toString())).toList());
+
+        Path expected = root.resolve("expected.txt");
+        CommonWalk.run(new String[]{input.toString(), expected.toString()}, true);
+        for (String depth : List.of("1", "3", "100")) {
+            Path actual = root.resolve("prefetch-" + depth);
+            CommonWalk.run(new String[]{"--prefetch", depth, input.toString(), actual.toString()}, true);
+            Assertions.assertEquals(Files.readAllLines(expected), Files.readAllLines(actual), depth);
+        }
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        Path input = Files.write(root.resolve("input.txt"), List.of(root.resolve("tree").toString()));
+        Path cache = root.resolve("hashes.cache");
+        Path first = root.resolve("first.txt");
+        CommonWalk.run(new String[]{"--sorted", "--cache", cache.toString(), input.toString(), first.toString(), "sha-1"}, true);
+        Assertions.assertTrue(Files.exists(cache));
+
+        // Same size and modification time, so the cached hash is still trusted
+        Path hit = files.get(3);
+        FileTime hitModified = Files.getLastModifiedTime(hit);
+        byte[] data = Files.readAllBytes(hit);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] ^= 1;
+        }
+        Files.write(hit, data);
+        Files.setLastModifiedTime(hit, hitModified);
+        // Another size, so the entry is stale
+        Path stale = files.get(4);
+        Files.write(stale, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        // Same size and modification time, but another file in place of the cached one
+        Path replaced = files.get(5);
+        FileTime replacedModified = Files.getLastModifiedTime(replaced);
+        byte[] replacement = Files.readAllBytes(replaced);
+        for (int i = 0; i < replacement.length; ++i) {
+            replacement[i] ^= 1;
+        }
+        Path tmp = Files.write(root.resolve("replacement"), replacement);
+        Files.setLastModifiedTime(tmp, replacedModified);
+        Files.move(tmp, replaced, StandardCopyOption.REPLACE_EXISTING);
+
+        Path cached = root.resolve("cached.txt");
+        Path uncached = root.resolve("uncached.txt");
+        CommonWalk.run(new String[]{"--sorted", "--cache", cache.toString(), input.toString(), cached.toString(), "sha-1"}, true);
+        CommonWalk.run(new String[]{"--sorted", input.toString(), uncached.toString(), "sha-1"}, true);
+        List<String> firstLines = Files.readAllLines(first);
+        List<String> cachedLines = Files.readAllLines(cached);
+        List<String> uncachedLines = Files.readAllLines(uncached);
+        for (int i = 0; i < cachedLines.size(); ++i) {
+            String line = cachedLines.get(i);
+            if (line.endsWith(File.separator + hit.getFileName())) {
+                Assertions.assertEquals(firstLines.get(i), line);
+                Assertions.assertNotEquals(uncachedLines.get(i), line);
+            } else {
+                Assertions.assertEquals(uncachedLines.get(i), line);
+            }
+        }
+    }
+
+    @Test
+    public void testDiffCache() throws IOException {
+        Path input = Files.write(root.resolve("input.txt"), List.of(root.resolve("tree").toString()));
+        Path baseline = root.resolve("baseline.json");
+        CommonWalk.run(new String[]{"--sorted", "--format", "json", input.toString(), baseline.toString(), "sha-1"}, true);
+
+        // Same size and modification time, so the baseline hash is reused, and then cached
+        Path reused = files.get(3);
+        FileTime reusedModified = Files.getLastModifiedTime(reused);
+        byte[] data = Files.readAllBytes(reused);
+        data[0] ^= 1;
+        Files.write(reused, data);
+        Files.setLastModifiedTime(reused, reusedModified);
+
+        Path cache = root.resolve("hashes.cache");
+        CommonWalk.run(new String[]{"--diff", baseline.toString(), "--cache", cache.toString(), input.toString(), root.resolve("diff.txt").toString(), "sha-1"}, true);
+        Path cached = root.resolve("cached.txt");
+        CommonWalk.run(new String[]{"--sorted", "--cache", cache.toString(), input.toString(), cached.toString(), "sha-1"}, true);
+        Path uncached = root.resolve("uncached.txt");
+        CommonWalk.run(new String[]{"--sorted", input.toString(), uncached.toString(), "sha-1"}, true);
+        List<String> cachedLines = Files.readAllLines(cached);
+        List<String> uncachedLines = Files.readAllLines(uncached);
+        Assertions.assertEquals(FILES, cachedLines.size());
+        for (int i = 0; i < cachedLines.size(); ++i) {
+            if (cachedLines.get(i).endsWith(File.separator + reused.getFileName())) {
+                Assertions.assertNotEquals(uncachedLines.get(i), cachedLines.get(i));
+            } else {
+                Assertions.assertEquals(uncachedLines.get(i), cachedLines.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptCache() throws IOException {
+        Path input = Files.write(root.resolve("input.txt"), List.of(root.resolve("tree").toString()));
+        Path expected = root.resolve("expected.txt");
+        CommonWalk.run(new String[]{"--sorted", input.toString(), expected.toString(), "sha-1"}, true);
+        Path cache = root.resolve("hashes.cache");
+        CommonWalk.run(new String[]{"--sorted", "--cache", cache.toString(), input.toString(), root.resolve("first.txt").toString(), "sha-1"}, true);
+        byte[] valid = Files.readAllBytes(cache);
+        // Magic, algorithm name, hash length and number of entries precede the first path length
+        int pathLength = Integer.BYTES + 2 + "sha-1".length() + 2 * Integer.BYTES;
+
+        List<byte[]> corrupt = new ArrayList<>();
+        for (int value : new int[]{-1, Integer.MAX_VALUE}) {
+            for (int offset : new int[]{pathLength - Integer.BYTES, pathLength}) {
+                byte[] bytes = valid.clone();
+                ByteBuffer.wrap(bytes).putInt(offset, value);
+                corrupt.add(bytes);
+            }
+        }
+        corrupt.add(Arrays.copyOf(valid, valid.length / 2));
+        byte[] garbage = new byte[1000];
+        random.nextBytes(garbage);
+        System.arraycopy(valid, 0, garbage, 0, pathLength);
+        corrupt.add(garbage);
+
+        for (byte[] bytes : corrupt) {
+            Files.write(cache, bytes);
+            Path actual = root.resolve("actual.txt");
+            CommonWalk.run(new String[]{"--sorted", "--cache", cache.toString(), input.toString(), actual.toString(), "sha-1"}, true);
+            Assertions.assertEquals(Files.readAllLines(expected), Files.readAllLines(actual));
+        }
+    }
+
+    @Test
+    public void testDaemon() throws IOException, InterruptedException {
+        Path missing = root.resolve("missing");
+        Path input = Files.write(root.resolve("input.txt"), List.of(missing.toString(), root.resolve("tree").toString(), files.get(5).toString()));
+        Path output = root.resolve("daemon.json");
+        Path expected = root.resolve("expected.json");
+        WalkDaemon daemon = WalkDaemon.create(new String[]{"--format", "json", "--watch-delay", "50", input.toString(), output.toString()});
+        Assertions.assertNotNull(daemon);
+        Thread thread = new Thread(daemon::run);
+        thread.start();
+        try {
+            awaitSameAsWalk(input, output, expected);
+
+            Files.write(files.get(0), new byte[]{1, 2, 3});
+            Files.delete(files.get(1));
+            Files.write(files.get(5), new byte[]{4, 5, 6});
+            Files.write(Files.createDirectories(root.resolve("tree").resolve("new").resolve("sub")).resolve("added"), new byte[]{7});
+            Files.write(missing, new byte[]{8});
+            try (Stream<Path> dir = Files.list(root.resolve("tree").resolve("dir6"))) {
+                for (Path file : dir.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(root.resolve("tree").resolve("dir6"));
+            awaitSameAsWalk(input, output, expected);
+            Assertions.assertTrue(daemon.getUpdates() > 0);
+            Assertions.assertEquals(Files.readAllLines(output).size() - 1, daemon.getFiles());
+        } finally {
+            daemon.close();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testDaemonOutputUnderInput() throws IOException, InterruptedException {
+        Path input = Files.write(root.resolve("input.txt"), List.of(root.resolve("tree").toString()));
+        Path output = root.resolve("tree").resolve("daemon.txt");
+        Path expected = root.resolve("expected.txt");
+        WalkDaemon daemon = WalkDaemon.create(new String[]{"--watch-delay", "50", input.toString(), output.toString()});
+        Assertions.assertNotNull(daemon);
+        Thread thread = new Thread(daemon::run);
+        thread.start();
+        try {
+            awaitSameAsWalkWithout(input, output, expected);
+            Files.write(files.get(0), new byte[]{1, 2, 3});
+            awaitSameAsWalkWithout(input, output, expected);
+
+            // Dumps of the output file itself mustn't cause further dumps
+            long updates = daemon.getUpdates();
+            Thread.sleep(500);
+            Assertions.assertEquals(updates, daemon.getUpdates());
+        } finally {
+            daemon.close();
+            thread.join();
+        }
+    }
+
+    private static void awaitSameAsWalkWithout(Path input, Path output, Path expected) throws IOException, InterruptedException {
+        CommonWalk.run(new String[]{"--sorted", input.toString(), expected.toString()}, true);
+        List<String> lines = Files.readAllLines(expected).stream().filter(line -> !line.endsWith(output.toString())).toList();
+        for (int i = 0; i < 100 && !(Files.exists(output) && Files.readAllLines(output).equals(lines)); ++i) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(lines, Files.readAllLines(output));
+    }
+
+    private static void awaitSameAsWalk(Path input, Path output, Path expected) throws IOException, InterruptedException {
+        CommonWalk.run(new String[]{"--sorted", "--format", "json", input.toString(), expected.toString()}, true);
+        List<String> lines = Files.readAllLines(expected);
+        for (int i = 0; i < 100 && !(Files.exists(output) && Files.readAllLines(output).equals(lines)); ++i) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(lines, Files.readAllLines(output));
+    }
+
+    private String randomPath(int maxDepth) {
+        String[] names = {"a", "b", "ab", "\u00e9", "\ue000", "\ud83d\ude00", "-", "a.b"};
+        StringBuilder path = new StringBuilder();
+        for (int depth = random.nextInt(maxDepth); depth >= 0; --depth) {
+            path.append(File.separator).append(names[random.nextInt(names.length)]);
+        }
+        return path.toString();
+    }
+
+    @Test
+    public void testPathStore() {
+        List<String> paths = Stream.generate(() -> randomPath(6)).limit(5000).toList();
+        for (int i = 0; i < paths.size(); ++i) {
+            String a = paths.get(i);
+            String b = paths.get((i + 1) % paths.size());
+            byte[] x = a.getBytes(StandardCharsets.UTF_8);
+            byte[] y = b.getBytes(StandardCharsets.UTF_8);
+            Assertions.assertEquals(Integer.signum(PathOrder.compare(a, b)), Integer.signum(PathOrder.compare(x, x.length, y, y.length)), a + " " + b);
+        }
+
+        List<String> sorted = paths.stream().distinct().sorted(PathOrder.COMPARATOR).toList();
+        PathStore store = new PathStore();
+        sorted.forEach(store::add);
+        Assertions.assertEquals(sorted.size(), store.size());
+        PathStore.Cursor cursor = store.cursor(0);
+        for (int i = 0; i < sorted.size(); ++i) {
+            Assertions.assertTrue(cursor.next());
+            Assertions.assertEquals(sorted.get(i), new String(cursor.path(), 0, cursor.length(), StandardCharsets.UTF_8));
+            Assertions.assertEquals(sorted.get(i), store.get(i));
+            byte[] path = sorted.get(i).getBytes(StandardCharsets.UTF_8);
+            Assertions.assertTrue(store.equals(i, path, path.length));
+            Assertions.assertFalse(store.equals(i, path, path.length - 1));
+            Assertions.assertEquals(i, store.lowerBound(path, path.length));
+        }
+        Assertions.assertFalse(cursor.next());
+        for (String path : paths) {
+            byte[] bytes = (path + "0").getBytes(StandardCharsets.UTF_8);
+            int expected = (int) sorted.stream().filter(other -> PathOrder.compare(other, path + "0") < 0).count();
+            Assertions.assertEquals(expected, store.lowerBound(bytes, bytes.length), path);
+        }
+    }
+
+    @Test
+    public void testHashIndex() throws IOException {
+        HashIndex index = new HashIndex(4);
+        NavigableMap<String, String> expected = new TreeMap<>(PathOrder.COMPARATOR);
+        for (int i = 0; i < 200_000; ++i) {
+            String path = randomPath(8);
+            if (random.nextInt(50) == 0) {
+                index.removeSubtree(path);
+                expected.keySet().removeIf(other -> other.equals(path) || other.startsWith(path + File.separator));
+            } else {
+                byte[] hash = new byte[4];
+                random.nextBytes(hash);
+                index.put(path, hash, null);
+                expected.put(path, HexFormat.of().formatHex(hash));
+            }
+        }
+
+        for (String root : Stream.concat(Stream.of((String) null), Stream.generate(() -> randomPath(3)).limit(20)).toList()) {
+            List<String> actual = new ArrayList<>();
+            index.forEach(root, (path, length, hash, size, modified) ->
+                    actual.add(new String(path, 0, length, StandardCharsets.UTF_8) + " " + HexFormat.of().formatHex(hash)));
+            Assertions.assertEquals(expected.entrySet().stream()
+                    .filter(entry -> root == null || entry.getKey().equals(root) || entry.getKey().startsWith(root + File.separator))
+                    .map(entry -> entry.getKey() + " " + entry.getValue())
+                    .toList(), actual, root);
+        }
+        Assertions.assertEquals(expected.size(), index.size());
+    }
+
+    @Test
+    public void testVerify() throws IOException {
+        Path input = Files.writeString(root.resolve("input.txt"), root.resolve("tree") + System.lineSeparator() + root.resolve("missing") + System.lineSeparator());
+        for (String format : List.of("text", "json")) {
+            Path output = root.resolve("output." + format);
+            CommonWalk.run(new String[]{"--format", format, input.toString(), output.toString(), "sha-1"}, true);
+            Path report = root.resolve("report." + format);
+            CommonWalk.run(new String[]{"--verify", output.toString(), report.toString(), "sha-1"}, true);
+            Assertions.assertEquals(List.of(), Files.readAllLines(report), format);
+        }
+
+        Path changed = files.get(0);
+        Files.write(changed, new byte[]{1, 2, 3});
+        Path removed = files.get(1);
+        Files.delete(removed);
+        for (String mode : List.of("pool", "async", "virtual")) {
+            Path report = root.resolve("report-" + mode);
+            CommonWalk.run(new String[]{"--verify", "--mode", mode, "--max-rate", Integer.toString(1 << 30),
+                    root.resolve("output.text").toString(), report.toString(), "sha-1"}, true);
+            List<String> lines = Files.readAllLines(report);
+            Assertions.assertEquals(2, lines.size(), lines::toString);
+            Assertions.assertTrue(lines.contains("~ 7037807198c22a7d2b0807371d763779a84fdfcf " + changed), lines::toString);
+            Assertions.assertTrue(lines.stream().anyMatch(line -> line.startsWith("- ") && line.endsWith(" " + removed)), lines::toString);
+        }
+
+        Path report = root.resolve("report.txt");
+        CommonWalk.run(new String[]{"--verify", "--threads", "1", "--max-failures", "1", root.resolve("output.json").toString(), report.toString(), "sha-1"}, true);
+        Assertions.assertEquals(1, Files.readAllLines(report).size());
+        // Output doesn't tell its hash function, so verification without one, or with another one, must not pass
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> CommonWalk.run(new String[]{"--verify", root.resolve("output.json").toString(), report.toString()}, true));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> CommonWalk.run(new String[]{"--verify", root.resolve("output.json").toString(), report.toString(), "crc32c"}, true));
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        byte[] data = new byte[(5 << 20) + 12345];
+        random.nextBytes(data);
+        Path large = Files.write(root.resolve("tree").resolve("large"), data);
+        // One byte over split size is a single piece, rather than a piece and a one byte tail
+        Files.write(root.resolve("tree").resolve("tail"), Arrays.copyOf(data, (1 << 20) + 1));
+        Assertions.assertEquals(1, SplittableHash.pieces((1 << 20) + 1, 1 << 20));
+        Assertions.assertEquals((1 << 20) + 1, SplittableHash.pieceLength((1 << 20) + 1, 1 << 20, 0));
+        Assertions.assertEquals(5, SplittableHash.pieces(data.length, 1 << 20));
+        Path input = Files.writeString(root.resolve("input.txt"), root.resolve("tree") + System.lineSeparator());
+
+        for (String algorithm : List.of("crc32c", "sha-256-tree")) {
+            Path sequential = root.resolve("sequential-" + algorithm);
+            CommonWalk.run(new String[]{"--threads", "1", input.toString(), sequential.toString(), algorithm}, true);
+            Path split = root.resolve("split-" + algorithm);
+            CommonWalk.run(new String[]{"--threads", "4", "--batch-size", "16", "--split-size", Integer.toString(1 << 20),
+                    input.toString(), split.toString(), algorithm}, true);
+            Assertions.assertEquals(Files.readAllLines(sequential), Files.readAllLines(split), algorithm);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        String expected = String.format("%08x %s", crc.getValue(), large);
+        Assertions.assertTrue(Files.readAllLines(root.resolve("split-crc32c")).contains(expected), expected);
+    }
+
+    @Test
+    public void testTimedFlush() throws IOException, InterruptedException {
+        Path output = root.resolve("output.txt");
+        WalkOptions options = new WalkOptions();
+        options.flushMillis = 50;
+        try (HashWriter hashWriter = new HashWriter(output, options)) {
+            hashWriter.writeHash("file", new byte[]{1, 2, 3, 4});
+            // Nothing else is written, like while a large file is being hashed, but the record is flushed anyway
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (Files.size(output) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(List.of("01020304 file"), Files.readAllLines(output));
+            hashWriter.writeHash("next", new byte[]{5, 6, 7, 8});
+        }
+        Assertions.assertEquals(List.of("01020304 file", "05060708 next"), Files.readAllLines(output));
+    }
+
+    @Test
+    public void testBatchFailure() throws IOException {
+        // Small file, so it is in the middle of a batch
+        int broken = FILES / 2 + 1;
+        Path bad = files.get(broken);
+        // Fails unexpectedly on a single file, both in a batch and alone
+        Supplier<HashCalculator> factory = () -> new JenkinsHash() {
+            @Override
+            void calculateHash(Path path, byte[] hash) throws IOException {
+                if (path.equals(bad)) {
+                    throw new IllegalStateException("Broken " + path);
+                }
+                super.calculateHash(path, hash);
+            }
+
+            @Override
+            public void calculateHashes(Path[] paths, byte[][] hashes) {
+                if (Arrays.asList(paths).contains(bad)) {
+                    throw new IllegalStateException("Broken " + bad);
+                }
+                super.calculateHashes(paths, hashes);
+            }
+        };
+        List<String> expected = new ArrayList<>(hashAll(new JenkinsHash()));
+        expected.set(broken, "00000000");
+
+        List<String> hashes = new ArrayList<>();
+        try (WalkExecutor walkExecutor = new ParallelWalkExecutor(factory, 4, 16, 0,
+                (filename, hash, attrs) -> hashes.add(HexFormat.of().formatHex(hash)), null)) {
+            for (Path file : files) {
+                walkExecutor.hash(file, Files.readAttributes(file, BasicFileAttributes.class));
+            }
+        }
+        Assertions.assertEquals(expected, hashes);
+    }
+
+    @Test
+    public void testJenkinsBatch() throws IOException {
+        List<Path> batch = new ArrayList<>(files);
+        batch.add(root.resolve("missing"));
+        batch.add(Files.createFile(root.resolve("empty")));
+        List<String> expected = new ArrayList<>(hashAll(new JenkinsHash()));
+        expected.add(null);
+        expected.add("00000000");
+
+        // Files here take more than arena, and the small threshold maps most of them
+        for (long mapThreshold : new long[]{ChannelReader.DEFAULT_MAP_THRESHOLD, 1 << 10}) {
+            JenkinsHash jenkinsHash = new JenkinsHash();
+            jenkinsHash.reader = new ChannelReader(mapThreshold);
+            byte[][] hashes = new byte[batch.size()][];
+            jenkinsHash.calculateHashes(batch.toArray(Path[]::new), hashes);
+            Assertions.assertEquals(expected, Stream.of(hashes).map(hash -> hash == null ? null : HexFormat.of().formatHex(hash)).toList());
+        }
+    }
+
+    @Test
+    public void testDiff() throws IOException {
+        Path input = root.resolve("input.txt");
+        Files.writeString(input, root.resolve("tree") + System.lineSeparator());
+        Path baseline = root.resolve("baseline.json");
+        CommonWalk.run(new String[]{"--sorted", "--format", "json", input.toString(), baseline.toString()}, true);
+
+        Path changed = files.get(0);
+        Files.write(changed, new byte[]{1, 2, 3});
+        Path removed = files.get(1);
+        Files.delete(removed);
+        Path added = root.resolve("tree").resolve("added");
+        Files.write(added, new byte[]{4, 5, 6});
+
+        Path diff = root.resolve("diff.txt");
+        CommonWalk.run(new String[]{"--diff", baseline.toString(), input.toString(), diff.toString()}, true);
+        List<String> lines = Files.readAllLines(diff);
+        Assertions.assertEquals(3, lines.size(), lines::toString);
+        Assertions.assertTrue(lines.contains("+ 52ef936a " + added), lines::toString);
+        Assertions.assertTrue(lines.stream().anyMatch(line -> line.startsWith("~ ") && line.endsWith(" " + changed)), lines::toString);
+        Assertions.assertTrue(lines.stream().anyMatch(line -> line.startsWith("- ") && line.endsWith(" " + removed)), lines::toString);
+
+        // Jenkins hashes of the baseline aren't reused for sha-1, so every file is rehashed and changed
+        Path sha1 = root.resolve("sha1.txt");
+        CommonWalk.run(new String[]{"--sorted", input.toString(), sha1.toString(), "sha-1"}, true);
+        Path sha1Diff = root.resolve("sha1-diff.txt");
+        CommonWalk.run(new String[]{"--diff", baseline.toString(), input.toString(), sha1Diff.toString(), "sha-1"}, true);
+        List<String> expected = new ArrayList<>();
+        for (String line : Files.readAllLines(sha1)) {
+            expected.add((line.endsWith(" " + added) ? "+ " : "~ ") + line);
+        }
+        List<String> actual = Files.readAllLines(sha1Diff).stream().filter(line -> !line.startsWith("- ")).toList();
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testDedup() throws IOException {
+        Path dir = Files.createDirectories(root.resolve("dedup"));
+        byte[] data = new byte[1 << 18];
+        random.nextBytes(data);
+        Path original = Files.write(dir.resolve("original"), data);
+        Path copy = Files.write(dir.resolve("copy"), data);
+        byte[] shifted = new byte[data.length + 1];
+        System.arraycopy(data, 0, shifted, 1, data.length);
+        Path edited = Files.write(dir.resolve("edited"), shifted);
+        // Chunks repeated within a file aren't shared
+        Path zeros = Files.write(dir.resolve("zeros"), new byte[1 << 20]);
+
+        Path input = Files.writeString(root.resolve("input.txt"), dir + System.lineSeparator());
+        Path plain = root.resolve("plain.txt");
+        CommonWalk.run(new String[]{input.toString(), plain.toString()}, true);
+        Path output = root.resolve("output.txt");
+        Path report = root.resolve("report.txt");
+        CommonWalk.run(new String[]{"--threads", "4", "--dedup", report.toString(), input.toString(), output.toString()}, true);
+        Assertions.assertEquals(Files.readAllLines(plain), Files.readAllLines(output));
+
+        List<String> lines = Files.readAllLines(report);
+        Assertions.assertTrue(lines.getFirst().startsWith("files 4, bytes " + (data.length * 3L + 1 + (1 << 20))), lines::toString);
+        Assertions.assertTrue(lines.stream().anyMatch(line -> line.startsWith("duplicate ")), lines::toString);
+        Assertions.assertTrue(lines.indexOf("  " + copy) >= 0 && lines.indexOf("  " + copy) < lines.indexOf("  " + original), lines::toString);
+        String shared = lines.stream().filter(line -> line.endsWith(" " + edited)).findFirst().orElseThrow();
+        Assertions.assertTrue(Double.parseDouble(shared.split(" ")[1]) > 0.9, shared);
+        Assertions.assertTrue(lines.stream().noneMatch(line -> line.endsWith(" " + zeros)), lines::toString);
+
+        // Report is sorted, so it doesn't depend on threads
+        Path sequential = root.resolve("sequential-report.txt");
+        CommonWalk.run(new String[]{"--threads", "1", "--dedup", sequential.toString(), input.toString(), root.resolve("sequential.txt").toString()}, true);
+        Assertions.assertEquals(lines, Files.readAllLines(sequential));
+    }
+}
@@ -0,0 +1,117 @@
+package info.kgeorgiy.ja.matveev.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming xxHash64 with zero seed.
+ */
+public class XxHash64 extends HashCalculator {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    // Tail of previous update, that didn't fill whole stripe
+    private final ByteBuffer memory = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1, v2, v3, v4;
+    private long total;
+
+    public XxHash64() {
+        super(8);
+    }
+
+    @Override
+    protected void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        total = 0;
+        memory.clear();
+    }
+
+    @Override
+    protected void update(ByteBuffer buffer) {
+        ByteBuffer input = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        total += input.remaining();
+
+        if (memory.position() > 0) {
+            int take = Math.min(memory.remaining(), input.remaining());
+            memory.put(memory.position(), input, 0, take);
+            memory.position(memory.position() + take);
+            input.position(take);
+            if (memory.hasRemaining()) {
+                return;
+            }
+            stripe(memory, 0);
+            memory.clear();
+        }
+
+        int i = input.position();
+        for (int limit = input.limit() - STRIPE; i <= limit; i += STRIPE) {
+            stripe(input, i);
+        }
+        memory.put(0, input, i, input.limit() - i);
+        memory.position(input.limit() - i);
+    }
+
+    private void stripe(ByteBuffer input, int offset) {
+        v1 = round(v1, input.getLong(offset));
+        v2 = round(v2, input.getLong(offset + 8));
+        v3 = round(v3, input.getLong(offset + 16));
+        v4 = round(v4, input.getLong(offset + 24));
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long merge(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+
+    @Override
+    protected void digest(byte[] hash, int offset) {
+        putLong(hash, offset, value());
+    }
+
+    /**
+     * Returns digest of consumed bytes as a number.
+     */
+    long value() {
+        long h;
+        if (total >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = PRIME5;
+        }
+        h += total;
+
+        int i = 0;
+        int size = memory.position();
+        for (; i + 8 <= size; i += 8) {
+            h = Long.rotateLeft(h ^ round(0, memory.getLong(i)), 27) * PRIME1 + PRIME4;
+        }
+        if (i + 4 <= size) {
+            h = Long.rotateLeft(h ^ (memory.getInt(i) & 0xFFFFFFFFL) * PRIME1, 23) * PRIME2 + PRIME3;
+            i += 4;
+        }
+        for (; i < size; ++i) {
+            h = Long.rotateLeft(h ^ (memory.get(i) & 0xFF) * PRIME5, 11) * PRIME1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
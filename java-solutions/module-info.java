@@ -1,5 +1,7 @@
 module info.kgeorgiy.ja.matveev {
     requires java.compiler;
+    requires java.management;
+    requires jdk.management;
     requires java.rmi;
     requires jdk.httpserver;
     requires org.junit.jupiter.api;
@@ -15,6 +17,9 @@ module info.kgeorgiy.ja.matveev {
     requires info.kgeorgiy.java.advanced.crawler;
     requires info.kgeorgiy.java.advanced.hello;
 
+    uses info.kgeorgiy.ja.matveev.walk.HashCalculatorProvider;
+
+    exports info.kgeorgiy.ja.matveev.walk;
     exports info.kgeorgiy.ja.matveev.bank to org.junit.platform.commons, java.rmi;
     exports info.kgeorgiy.ja.matveev.bank.person to java.rmi, org.junit.platform.commons;
     exports info.kgeorgiy.ja.matveev.bank.accont to java.rmi, org.junit.platform.commons;